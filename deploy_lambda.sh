@@ -1,5 +1,11 @@
 #!/bin/sh
 
+# With SnapStart or COLD_START_PRIMING=true the function's execution role also needs these actions for the
+# priming calls in ColdStartPriming (otherwise they fail and are skipped with a warning):
+#   dynamodb:DescribeTable   on the ICS_Showcase_Call_Handler table
+#   translate:ListLanguages  on *
+#   polly:DescribeVoices     on *
+
 ./gradlew clean buildZip --rerun-tasks
 
 aws s3 cp ./build/distributions/aws_translate-1.0-SNAPSHOT.zip s3://aws-real-time-translation/ics_showcase_translate_lambda.zip
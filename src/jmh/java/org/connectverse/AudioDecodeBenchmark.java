@@ -0,0 +1,58 @@
+package org.connectverse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record work of {@link KDSByteToAudioEventSubscription}: Base64 decoding a Kinesis record and wrapping the
+ * audio in AudioEvents. One operation is one record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AudioDecodeBenchmark {
+
+    @Param({"PER_RECORD", "FIXED_SIZE"})
+    public String chunking;
+
+    // 100 ms of 16 kHz 16-bit audio, a typical record size
+    @Param({"3200"})
+    public int recordBytes;
+
+    @Param({"1024"})
+    public int chunkBytes;
+
+    private SdkBytes record;
+    private AudioRecordDecoder decoder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] pcm = new byte[recordBytes];
+        ThreadLocalRandom.current().nextBytes(pcm);
+        record = SdkBytes.fromByteArrayUnsafe(Base64.getEncoder().encode(pcm));
+        decoder = new AudioRecordDecoder(AudioRecordDecoder.ChunkingPolicy.valueOf(chunking), chunkBytes, 16000);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        decoder.decode(record, blackhole::consume);
+    }
+
+    @Benchmark
+    public void decodeToAudioEvents(Blackhole blackhole) {
+        decoder.decode(record, audio -> blackhole.consume(KDSByteToAudioEventSubscription.audioEventFromBytes(audio)));
+    }
+}
@@ -0,0 +1,41 @@
+package org.connectverse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory part of request enrichment: building a TranscriptionRequest and applying the call's languages to
+ * it. The settings lookup itself is not measured. One operation is one call leg.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EnrichmentBenchmark {
+
+    private LanguageSettingsService.CallLanguages languages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, LanguageDetails> table = LanguageSettingsService.loadLanguages();
+        languages = new LanguageSettingsService.CallLanguages(table.get("English"), table.get("Spanish"));
+    }
+
+    @Benchmark
+    public TranscriptionRequest enrich() {
+        TranscriptionRequest request = new TranscriptionRequest();
+        request.setStreamARN("arn:aws:kinesis:us-east-1:000000000000:stream/benchmark/0");
+        request.setConnectContactId("benchmark");
+        request.setCommunicator(Communicator.CUSTOMER);
+        KDSTranslateLambda.applyLanguageSettings(request, languages);
+        return request;
+    }
+}
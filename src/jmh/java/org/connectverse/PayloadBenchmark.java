@@ -0,0 +1,64 @@
+package org.connectverse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the WebSocket messages of {@link WebSocketStreamer} from synthesized speech. One operation is one clip
+ * or one frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadBenchmark {
+
+    // About 3 s and 10 s of 48 kbps MP3
+    @Param({"18000", "60000"})
+    public int clipBytes;
+
+    private byte[] mp3;
+    private ByteBuffer encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mp3 = new byte[clipBytes];
+        ThreadLocalRandom.current().nextBytes(mp3);
+        encoded = ByteBuffer.wrap(Base64.getEncoder().encode(mp3)).asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public String encodeToBase64() throws IOException {
+        return WebSocketStreamer.encodeToBase64(new ByteArrayInputStream(mp3));
+    }
+
+    @Benchmark
+    public byte[] buildAudioPayload() {
+        return WebSocketStreamer.buildAudioPayload(encoded.duplicate());
+    }
+
+    @Benchmark
+    public byte[] encodeAndBuildAudioPayload() {
+        return WebSocketStreamer.buildAudioPayload(Base64.getEncoder().encode(ByteBuffer.wrap(mp3)));
+    }
+
+    @Benchmark
+    public byte[] buildFramePayload() {
+        ByteBuffer frame = encoded.duplicate();
+        frame.limit(Math.min(frame.limit(), 4096));
+        return WebSocketStreamer.buildFramePayload(42, 3, false, frame);
+    }
+}
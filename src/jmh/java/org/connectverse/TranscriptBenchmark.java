@@ -0,0 +1,63 @@
+package org.connectverse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.Transcript;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the transcript of a Transcribe event in {@link StreamTranscriptionBehaviorImpl}. Most events carry only a
+ * partial result, so the partial-only case is the common one. One operation is one event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TranscriptBenchmark {
+
+    @Param({"0", "1", "3"})
+    public int finalResults;
+
+    private TranscriptEvent event;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < finalResults; i++) {
+            results.add(result("final-" + i, false, "your order was shipped yesterday and should arrive on friday"));
+        }
+        results.add(result("partial", true, "thank you so much for"));
+        event = TranscriptEvent.builder().transcript(Transcript.builder().results(results).build()).build();
+    }
+
+    private static Result result(String id, boolean partial, String transcript) {
+        return Result.builder()
+                .resultId(id)
+                .isPartial(partial)
+                .alternatives(Alternative.builder().transcript(transcript).build(),
+                        Alternative.builder().transcript(transcript.toUpperCase()).build())
+                .build();
+    }
+
+    @Benchmark
+    public List<String> getFinalSegments() {
+        return StreamTranscriptionBehaviorImpl.getFinalSegments(event);
+    }
+
+    @Benchmark
+    public String getTranscript() {
+        return StreamTranscriptionBehaviorImpl.getTranscript(event);
+    }
+}
@@ -0,0 +1,132 @@
+package org.connectverse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What one simulated caller says: the lines of the conversation, when each line is spoken, and the 16 kHz 16-bit
+ * PCM audio the Kinesis fake replays for it.
+ *
+ * <p>Every word takes {@link #WORD_MILLIS} of audio and every line is followed by a pause of {@link #PAUSE_MILLIS}.
+ * The Transcribe fake uses the same timing to decide which words it has "heard" so far. Without a PCM file the
+ * audio is a tone while a line is spoken and silence in the pauses; a PCM file is looped or cut to fit.</p>
+ */
+final class CallScript {
+
+    static final int SAMPLE_RATE_HERTZ = 16000;
+    static final int BYTES_PER_MILLI = SAMPLE_RATE_HERTZ * 2 / 1000;
+    static final long WORD_MILLIS = 400;
+    static final long PAUSE_MILLIS = 800;
+    static final int RECORD_MILLIS = 100;
+
+    private static final List<String> DEFAULT_LINES = Arrays.asList(
+            "hello thank you for calling how can I help you today",
+            "I would like to check the status of my order",
+            "sure can you give me the order number please",
+            "it is four five six seven eight",
+            "thank you one moment while I look that up",
+            "your order was shipped yesterday and should arrive on friday",
+            "great thank you so much for your help",
+            "you are welcome is there anything else I can do for you");
+
+    private static final double TONE_HERTZ = 220;
+    private static final double TONE_AMPLITUDE = 4000;
+
+    static final class Line {
+        final String[] words;
+        final long startMillis;
+        final long endMillis;
+
+        Line(String text, long startMillis) {
+            this.words = text.trim().split("\\s+");
+            this.startMillis = startMillis;
+            this.endMillis = startMillis + words.length * WORD_MILLIS;
+        }
+
+        String text(int wordCount) {
+            return String.join(" ", Arrays.copyOf(words, wordCount));
+        }
+    }
+
+    private final List<Line> lines;
+    private final long durationMillis;
+    // Base64 encoded Kinesis record payloads of RECORD_MILLIS audio each, shared by all simulated calls
+    private final List<byte[]> records;
+
+    private CallScript(List<String> texts, byte[] pcm) {
+        List<Line> parsed = new ArrayList<>();
+        long offset = PAUSE_MILLIS;
+        for (String text : texts) {
+            if (!text.trim().isEmpty()) {
+                Line line = new Line(text, offset);
+                parsed.add(line);
+                offset = line.endMillis + PAUSE_MILLIS;
+            }
+        }
+        this.lines = Collections.unmodifiableList(parsed);
+        this.durationMillis = offset;
+
+        byte[] audio = pcm != null ? fit(pcm, durationMillis) : synthesize(parsed, durationMillis);
+        int recordBytes = RECORD_MILLIS * BYTES_PER_MILLI;
+        List<byte[]> chunks = new ArrayList<>();
+        for (int position = 0; position < audio.length; position += recordBytes) {
+            byte[] chunk = Arrays.copyOfRange(audio, position, Math.min(audio.length, position + recordBytes));
+            chunks.add(Base64.getEncoder().encode(chunk));
+        }
+        this.records = Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * @param scriptFile text file with one spoken line per row, or null for the built-in conversation
+     * @param pcmFile    raw 16 kHz 16-bit little-endian mono PCM, or null for a generated tone
+     */
+    static CallScript load(String scriptFile, String pcmFile) throws IOException {
+        List<String> texts = scriptFile != null
+                ? Files.readAllLines(Paths.get(scriptFile), StandardCharsets.UTF_8)
+                : DEFAULT_LINES;
+        byte[] pcm = pcmFile != null ? Files.readAllBytes(Paths.get(pcmFile)) : null;
+        return new CallScript(texts, pcm);
+    }
+
+    List<Line> getLines() {
+        return lines;
+    }
+
+    long getDurationMillis() {
+        return durationMillis;
+    }
+
+    List<byte[]> getRecords() {
+        return records;
+    }
+
+    private static byte[] fit(byte[] pcm, long durationMillis) {
+        byte[] audio = new byte[(int) (durationMillis * BYTES_PER_MILLI)];
+        int usable = pcm.length & ~1;
+        for (int position = 0; usable > 0 && position < audio.length; position += usable) {
+            System.arraycopy(pcm, 0, audio, position, Math.min(usable, audio.length - position));
+        }
+        return audio;
+    }
+
+    private static byte[] synthesize(List<Line> lines, long durationMillis) {
+        byte[] audio = new byte[(int) (durationMillis * BYTES_PER_MILLI)];
+        for (Line line : lines) {
+            int from = (int) (line.startMillis * SAMPLE_RATE_HERTZ / 1000);
+            int to = (int) (line.endMillis * SAMPLE_RATE_HERTZ / 1000);
+            for (int sample = from; sample < to; sample++) {
+                short value = (short) (TONE_AMPLITUDE * Math.sin(2 * Math.PI * TONE_HERTZ * sample / SAMPLE_RATE_HERTZ));
+                audio[sample * 2] = (byte) value;
+                audio[sample * 2 + 1] = (byte) (value >> 8);
+            }
+        }
+        return audio;
+    }
+}
@@ -0,0 +1,63 @@
+package org.connectverse;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.util.Map;
+
+/**
+ * In-memory stand-in for the two tables the flow reads: the language settings, where every contact has a row of
+ * its own, and the WebSocket connection of each receiver, whose connection ID is derived from the receiver's name.
+ */
+final class FakeDynamoDbClient implements DynamoDbClient {
+
+    static final String CUSTOMER_LANGUAGE = "English";
+    static final String AGENT_LANGUAGE = "Spanish";
+
+    private final SimulatedLatency latency;
+
+    FakeDynamoDbClient(SimulatedLatency latency) {
+        this.latency = latency;
+    }
+
+    static String connectionIdOf(String receiver) {
+        return "conn-" + receiver;
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        latency.sleep();
+        return GetItemResponse.builder()
+                .item(Map.of(
+                        LanguageSettingsService.CUSTOMER_LANGUAGE, string(CUSTOMER_LANGUAGE),
+                        LanguageSettingsService.AGENT_LANGUAGE, string(AGENT_LANGUAGE)))
+                .build();
+    }
+
+    @Override
+    public QueryResponse query(QueryRequest request) {
+        latency.sleep();
+        String receiver = request.expressionAttributeValues().get(":v_communicator").s();
+        Map<String, AttributeValue> item = Map.of(
+                "communicator", string(receiver),
+                "connectionId", string(connectionIdOf(receiver)));
+        return QueryResponse.builder().items(item).count(1).build();
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,102 @@
+package org.connectverse;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kinesis stand-in with one shard per stream that replays the script's audio records at real time, or faster with
+ * a speed above 1. The replay of a stream starts when its shard is first opened; records written before the
+ * reader got there are returned at once, as Kinesis would. Once the audio is over the shard stays open and empty
+ * until the session ends.
+ *
+ * <p>Each record's partition key is the stream name, which the load test also uses as contact ID, so
+ * KINESIS_FILTER_BY_CONTACT_ID can be on or off.</p>
+ */
+final class FakeKinesisClient implements KinesisClient {
+
+    private static final String SHARD_ID = "shardId-000000000000";
+
+    private final CallScript script;
+    private final double speed;
+    private final Map<String, Long> streamStartNanos = new ConcurrentHashMap<>();
+
+    FakeKinesisClient(CallScript script, double speed) {
+        this.script = script;
+        this.speed = speed;
+    }
+
+    @Override
+    public ListShardsResponse listShards(ListShardsRequest request) {
+        return ListShardsResponse.builder()
+                .shards(Shard.builder().shardId(SHARD_ID).build())
+                .build();
+    }
+
+    @Override
+    public GetShardIteratorResponse getShardIterator(GetShardIteratorRequest request) {
+        String streamName = request.streamName();
+        streamStartNanos.putIfAbsent(streamName, System.nanoTime());
+
+        long position = request.shardIteratorType() == ShardIteratorType.AFTER_SEQUENCE_NUMBER
+                ? Long.parseLong(request.startingSequenceNumber()) + 1
+                : 0;
+        return GetShardIteratorResponse.builder().shardIterator(iterator(streamName, position)).build();
+    }
+
+    @Override
+    public GetRecordsResponse getRecords(GetRecordsRequest request) {
+        String iterator = request.shardIterator();
+        int separator = iterator.lastIndexOf('/');
+        String streamName = iterator.substring(0, separator);
+        int position = Integer.parseInt(iterator.substring(separator + 1));
+
+        long elapsedMillis = (System.nanoTime() - streamStartNanos.get(streamName)) / 1_000_000;
+        long written = Math.min(script.getRecords().size(), (long) (elapsedMillis * speed / CallScript.RECORD_MILLIS));
+        int limit = request.limit() != null ? request.limit() : Integer.MAX_VALUE;
+        int end = (int) Math.min(written, (long) position + limit);
+
+        List<Record> records = new ArrayList<>();
+        for (int i = position; i < end; i++) {
+            records.add(Record.builder()
+                    .sequenceNumber(String.valueOf(i))
+                    .partitionKey(streamName)
+                    .approximateArrivalTimestamp(Instant.now())
+                    .data(SdkBytes.fromByteArrayUnsafe(script.getRecords().get(i)))
+                    .build());
+        }
+
+        return GetRecordsResponse.builder()
+                .records(records)
+                .nextShardIterator(iterator(streamName, Math.max(position, end)))
+                .millisBehindLatest(written > end ? (written - end) * CallScript.RECORD_MILLIS : 0L)
+                .build();
+    }
+
+    private static String iterator(String streamName, long position) {
+        return streamName + "/" + position;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
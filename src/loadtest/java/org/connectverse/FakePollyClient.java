@@ -0,0 +1,60 @@
+package org.connectverse;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.polly.PollyAsyncClient;
+import software.amazon.awssdk.services.polly.model.SynthesizeSpeechRequest;
+import software.amazon.awssdk.services.polly.model.SynthesizeSpeechResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polly stand-in that returns silent audio after a simulated latency. The audio is sized like 48 kbps MP3 of
+ * speech at about 60 ms per character, so delivery moves realistic payloads.
+ */
+final class FakePollyClient implements PollyAsyncClient {
+
+    private static final int BYTES_PER_CHARACTER = 360;
+
+    private final SimulatedLatency latency;
+    private final AtomicLong requests = new AtomicLong();
+
+    FakePollyClient(SimulatedLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> synthesizeSpeech(
+            SynthesizeSpeechRequest request, AsyncResponseTransformer<SynthesizeSpeechResponse, ReturnT> transformer) {
+        requests.incrementAndGet();
+        byte[] audio = new byte[Math.max(1, request.text().length()) * BYTES_PER_CHARACTER];
+
+        CompletableFuture<ReturnT> result = transformer.prepare();
+        latency.after(() -> SynthesizeSpeechResponse.builder()
+                .contentType("audio/mpeg")
+                .requestCharacters(request.text().length())
+                .build()).whenComplete((response, e) -> {
+                    if (e != null) {
+                        transformer.exceptionOccurred(e);
+                        return;
+                    }
+                    transformer.onResponse(response);
+                    transformer.onStream(AsyncRequestBody.fromBytes(audio));
+                });
+        return result;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
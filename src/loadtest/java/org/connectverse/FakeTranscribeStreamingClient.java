@@ -0,0 +1,262 @@
+package org.connectverse;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.ItemType;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
+import software.amazon.awssdk.services.transcribestreaming.model.Transcript;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transcribe stand-in that "recognizes" the script by counting the audio it receives. While a line is being spoken
+ * it sends a partial result every {@link #PARTIAL_INTERVAL_MILLIS} of audio with the words heard so far; once
+ * {@link #FINAL_DELAY_MILLIS} of audio past the end of the line has arrived it sends the final result. When the
+ * last line is final it cancels the audio stream and ends the session, as Transcribe does when a call hangs up.
+ *
+ * <p>With partial results stabilization requested, all but the last {@link #UNSTABLE_WORDS} words of a partial are
+ * marked stable. Result offsets are scaled by the replay speed so that they stay consistent with wall-clock time.</p>
+ */
+final class FakeTranscribeStreamingClient implements TranscribeStreamingAsyncClient {
+
+    static final long PARTIAL_INTERVAL_MILLIS = 200;
+    static final long FINAL_DELAY_MILLIS = 300;
+    static final int UNSTABLE_WORDS = 2;
+
+    // Keep a few audio events requested, like the real client's HTTP/2 flow control window
+    private static final int AUDIO_EVENTS_REQUESTED = 8;
+
+    private final CallScript script;
+    private final double speed;
+    private final AtomicLong audioBytesReceived = new AtomicLong();
+
+    FakeTranscribeStreamingClient(CallScript script, double speed) {
+        this.script = script;
+        this.speed = speed;
+    }
+
+    @Override
+    public CompletableFuture<Void> startStreamTranscription(StartStreamTranscriptionRequest request,
+                                                            Publisher<AudioStream> requestStream,
+                                                            StartStreamTranscriptionResponseHandler responseHandler) {
+        Session session = new Session(request, responseHandler);
+        requestStream.subscribe(session);
+        return session.result;
+    }
+
+    long getAudioBytesReceived() {
+        return audioBytesReceived.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private final class Session implements Subscriber<AudioStream> {
+
+        private final StartStreamTranscriptionRequest request;
+        private final StartStreamTranscriptionResponseHandler handler;
+        private final EventPublisher events = new EventPublisher();
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final boolean stabilization;
+
+        private Subscription audio;
+        private long bytes = 0;
+        private int lineIndex = 0;
+        private long lastPartialMillis = 0;
+
+        Session(StartStreamTranscriptionRequest request, StartStreamTranscriptionResponseHandler handler) {
+            this.request = request;
+            this.handler = handler;
+            this.stabilization = Boolean.TRUE.equals(request.enablePartialResultsStabilization());
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            audio = subscription;
+            handler.responseReceived(StartStreamTranscriptionResponse.builder()
+                    .requestId(UUID.randomUUID().toString())
+                    .sessionId(request.sessionId())
+                    .languageCode(request.languageCode())
+                    .build());
+            handler.onEventStream(events);
+            subscription.request(AUDIO_EVENTS_REQUESTED);
+        }
+
+        @Override
+        public void onNext(AudioStream event) {
+            if (event instanceof AudioEvent) {
+                int length = ((AudioEvent) event).audioChunk().asByteArrayUnsafe().length;
+                bytes += length;
+                audioBytesReceived.addAndGet(length);
+                recognize(bytes / CallScript.BYTES_PER_MILLI);
+            }
+            if (!finished.get()) {
+                audio.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (finished.compareAndSet(false, true)) {
+                handler.exceptionOccurred(t);
+                result.completeExceptionally(t);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            finish();
+        }
+
+        private void recognize(long audioMillis) {
+            List<CallScript.Line> lines = script.getLines();
+            while (lineIndex < lines.size()) {
+                CallScript.Line line = lines.get(lineIndex);
+                if (audioMillis >= line.endMillis + FINAL_DELAY_MILLIS) {
+                    events.publish(event(lineIndex, line, line.words.length, false));
+                    lineIndex++;
+                    continue;
+                }
+                if (audioMillis > line.startMillis && audioMillis - lastPartialMillis >= PARTIAL_INTERVAL_MILLIS) {
+                    int heard = (int) Math.min(line.words.length, (audioMillis - line.startMillis) / CallScript.WORD_MILLIS + 1);
+                    events.publish(event(lineIndex, line, heard, true));
+                    lastPartialMillis = audioMillis;
+                }
+                return;
+            }
+            audio.cancel();
+            finish();
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                events.complete();
+                handler.complete();
+                result.complete(null);
+            }
+        }
+
+        private TranscriptResultStream event(int index, CallScript.Line line, int wordCount, boolean partial) {
+            List<Item> items = new ArrayList<>();
+            for (int i = 0; i < wordCount; i++) {
+                long start = line.startMillis + i * CallScript.WORD_MILLIS;
+                Item.Builder item = Item.builder()
+                        .content(line.words[i])
+                        .type(ItemType.PRONUNCIATION)
+                        .startTime(seconds(start))
+                        .endTime(seconds(start + CallScript.WORD_MILLIS));
+                if (stabilization) {
+                    item.stable(!partial || i < wordCount - UNSTABLE_WORDS);
+                }
+                items.add(item.build());
+            }
+
+            return TranscriptEvent.builder()
+                    .transcript(Transcript.builder()
+                            .results(Result.builder()
+                                    .resultId(request.sessionId() + "-" + index)
+                                    .isPartial(partial)
+                                    .startTime(seconds(line.startMillis))
+                                    .endTime(seconds(line.startMillis + wordCount * CallScript.WORD_MILLIS))
+                                    .alternatives(Alternative.builder()
+                                            .transcript(line.text(wordCount))
+                                            .items(items)
+                                            .build())
+                                    .build())
+                            .build())
+                    .build();
+        }
+
+        private double seconds(long audioMillis) {
+            return audioMillis / speed / 1000.0;
+        }
+    }
+
+    /**
+     * Hands transcript events to the response handler's subscriber as it requests them.
+     */
+    private static final class EventPublisher implements SdkPublisher<TranscriptResultStream> {
+
+        private final Queue<TranscriptResultStream> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        private volatile Subscriber<? super TranscriptResultStream> subscriber;
+        private volatile boolean completed = false;
+        private volatile boolean terminated = false;
+
+        @Override
+        public void subscribe(Subscriber<? super TranscriptResultStream> s) {
+            subscriber = s;
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+                    drain();
+                }
+
+                @Override
+                public void cancel() {
+                    terminated = true;
+                    queue.clear();
+                }
+            });
+            drain();
+        }
+
+        void publish(TranscriptResultStream event) {
+            queue.add(event);
+            drain();
+        }
+
+        void complete() {
+            completed = true;
+            drain();
+        }
+
+        private void drain() {
+            if (workInProgress.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                Subscriber<? super TranscriptResultStream> s = subscriber;
+                if (s != null && !terminated) {
+                    while (demand.get() > 0 && !queue.isEmpty()) {
+                        demand.decrementAndGet();
+                        s.onNext(queue.poll());
+                    }
+                    if (completed && queue.isEmpty()) {
+                        terminated = true;
+                        s.onComplete();
+                    }
+                }
+            } while (workInProgress.decrementAndGet() != 0);
+        }
+    }
+}
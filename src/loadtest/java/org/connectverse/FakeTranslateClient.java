@@ -0,0 +1,46 @@
+package org.connectverse;
+
+import software.amazon.awssdk.services.translate.TranslateAsyncClient;
+import software.amazon.awssdk.services.translate.model.TranslateTextRequest;
+import software.amazon.awssdk.services.translate.model.TranslateTextResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translate stand-in that answers after a simulated latency. Every line of the text is prefixed with the target
+ * language code, so batched requests split back the way real translations do.
+ */
+final class FakeTranslateClient implements TranslateAsyncClient {
+
+    private final SimulatedLatency latency;
+    private final AtomicLong requests = new AtomicLong();
+
+    FakeTranslateClient(SimulatedLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public CompletableFuture<TranslateTextResponse> translateText(TranslateTextRequest request) {
+        requests.incrementAndGet();
+        String prefix = "[" + request.targetLanguageCode() + "] ";
+        return latency.after(() -> TranslateTextResponse.builder()
+                .sourceLanguageCode(request.sourceLanguageCode())
+                .targetLanguageCode(request.targetLanguageCode())
+                .translatedText(prefix + request.text().replace("\n", "\n" + prefix))
+                .build());
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
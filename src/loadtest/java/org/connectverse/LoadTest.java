@@ -0,0 +1,131 @@
+package org.connectverse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the Lambda's flow offline against in-process stand-ins for Kinesis, Transcribe, Translate, Polly, DynamoDB
+ * and API Gateway, and reports per-stage latency and throughput for 1, 2, 4, ... up to LOADTEST_CALLS concurrent
+ * calls. Run with {@code gradle loadTest}.
+ *
+ * <p>Every call replays the same script (LOADTEST_SCRIPT_FILE, one line per utterance) with the same audio
+ * (LOADTEST_PCM_FILE, raw 16 kHz 16-bit PCM) at LOADTEST_SPEED times real time. Service latencies are set with
+ * LOADTEST_TRANSLATE_LATENCY_MS, LOADTEST_POLLY_LATENCY_MS, LOADTEST_POST_LATENCY_MS and
+ * LOADTEST_DYNAMODB_LATENCY_MS. All other environment variables tune the code under test as they do in the Lambda.</p>
+ *
+ * <p>Latencies are the ones {@link CallMetrics} records for every delivered utterance, merged over all calls of a
+ * run.</p>
+ */
+public final class LoadTest {
+
+    private static final long TIMEOUT_MARGIN_SECONDS = 60;
+
+    private final CallScript script;
+    private final double speed;
+    private final FakeTranscribeStreamingClient transcribe;
+    private final FakeTranslateClient translate;
+    private final FakePollyClient polly;
+    private final WebSocketSink sink;
+    private final AtomicReference<CallMetrics> runMetrics = new AtomicReference<>();
+
+    private LoadTest(CallScript script, double speed) {
+        this.script = script;
+        this.speed = speed;
+        this.transcribe = new FakeTranscribeStreamingClient(script, speed);
+        this.translate = new FakeTranslateClient(SimulatedLatency.fromEnvironment("LOADTEST_TRANSLATE_LATENCY_MS", 80));
+        this.polly = new FakePollyClient(SimulatedLatency.fromEnvironment("LOADTEST_POLLY_LATENCY_MS", 150));
+        this.sink = new WebSocketSink(SimulatedLatency.fromEnvironment("LOADTEST_POST_LATENCY_MS", 15));
+
+        // Must happen before anything touches AwsClients, including the static initializer of KDSTranslateLambda
+        AwsClients.override(new AwsClients.Overrides()
+                .kinesis(new FakeKinesisClient(script, speed))
+                .transcribeStreaming(transcribe)
+                .translate(translate)
+                .polly(polly)
+                .dynamoDb(new FakeDynamoDbClient(SimulatedLatency.fromEnvironment("LOADTEST_DYNAMODB_LATENCY_MS", 5)))
+                .apiGatewayManagement(endpoint -> sink));
+
+        CallMetrics.setFlushListener(callMetrics -> {
+            CallMetrics total = runMetrics.get();
+            if (total != null) {
+                for (CallMetrics.Stage stage : CallMetrics.Stage.values()) {
+                    callMetrics.samples(stage).forEach(sample -> total.record(stage, sample));
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxCalls = Math.max(1, EnvConfig.getInt("LOADTEST_CALLS", 8));
+        double speed = Double.parseDouble(EnvConfig.getString("LOADTEST_SPEED", "1"));
+        CallScript script = CallScript.load(
+                EnvConfig.getString("LOADTEST_SCRIPT_FILE", null),
+                EnvConfig.getString("LOADTEST_PCM_FILE", null));
+
+        LoadTest loadTest = new LoadTest(script, speed);
+        System.out.printf("Script: %d utterances, %.1f s of audio per call, replayed at %.1fx%n",
+                script.getLines().size(), script.getDurationMillis() / 1000.0, speed);
+
+        try (TranscribeStreamingRetryClient client =
+                     new TranscribeStreamingRetryClient(AwsClients.transcribeStreaming(), false)) {
+            for (int calls = 1; ; calls = Math.min(maxCalls, calls * 2)) {
+                loadTest.run(client, calls);
+                if (calls == maxCalls) {
+                    break;
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run(TranscribeStreamingRetryClient client, int calls) throws Exception {
+        CallMetrics total = new CallMetrics(null, null);
+        runMetrics.set(total);
+        long audioBytesBefore = transcribe.getAudioBytesReceived();
+        long postsBefore = sink.getPosts();
+        long translateBefore = translate.getRequests();
+        long pollyBefore = polly.getRequests();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> sessions = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            TranscriptionRequest request = newRequest("loadtest-" + calls + "-" + i);
+            KDSTranslateLambda.enrichTranscriptionRequestion(request);
+            sessions.add(KDSTranslateLambda.startSession(client, request));
+        }
+
+        long timeoutSeconds = (long) (script.getDurationMillis() / speed / 1000) + TIMEOUT_MARGIN_SECONDS;
+        CompletableFuture.allOf(sessions.toArray(new CompletableFuture<?>[0])).get(timeoutSeconds, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        runMetrics.set(null);
+
+        int delivered = total.count(CallMetrics.Stage.END_TO_END);
+        double audioSeconds = (transcribe.getAudioBytesReceived() - audioBytesBefore) / (double) CallScript.BYTES_PER_MILLI / 1000;
+        System.out.printf("%n== %d concurrent call(s): %d of %d utterances delivered in %.1f s%n",
+                calls, delivered, calls * script.getLines().size(), seconds);
+        System.out.printf("   %.2f utterances/s, %.1f s of audio transcribed (%.1fx real time), "
+                        + "%d Translate and %d Polly requests, %d WebSocket posts%n",
+                delivered / seconds, audioSeconds, audioSeconds / seconds,
+                translate.getRequests() - translateBefore, polly.getRequests() - pollyBefore, sink.getPosts() - postsBefore);
+        System.out.printf("   %-12s %8s %8s %8s %8s%n", "stage (ms)", "p50", "p90", "p99", "max");
+        for (CallMetrics.Stage stage : CallMetrics.Stage.values()) {
+            System.out.printf("   %-12s %8d %8d %8d %8d%n", stage.name(),
+                    total.percentile(stage, 50), total.percentile(stage, 90),
+                    total.percentile(stage, 99), total.percentile(stage, 100));
+        }
+    }
+
+    private static TranscriptionRequest newRequest(String callId) {
+        TranscriptionRequest request = new TranscriptionRequest();
+        // The stream name is the part between the slashes, and doubles as contact ID and partition key
+        request.setStreamARN("arn:aws:kinesis:us-east-1:000000000000:stream/" + callId + "/0");
+        request.setConnectContactId(callId);
+        request.setReceiver(callId + "-agent");
+        request.setCommunicator(Communicator.CUSTOMER);
+        request.setStreamAudioFromCustomer(true);
+        return request;
+    }
+}
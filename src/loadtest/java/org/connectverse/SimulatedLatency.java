@@ -0,0 +1,57 @@
+package org.connectverse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Service latency of a fake: a base delay plus up to 25% random jitter.
+ *
+ * <p>Async fakes complete their futures on a shared pool, like the SDK's future completion executor, so the
+ * pipeline's dependent stages run on the same kind of threads as in production.</p>
+ */
+final class SimulatedLatency {
+
+    private static final Executor COMPLETION_EXECUTOR =
+            ExecutorFactory.newFixedThreadPool("loadtest-sdk-completion", 16);
+
+    private final long baseMillis;
+    private final long jitterMillis;
+
+    SimulatedLatency(long baseMillis) {
+        this.baseMillis = Math.max(0, baseMillis);
+        this.jitterMillis = this.baseMillis / 4;
+    }
+
+    /**
+     * @param name environment variable with the base latency in milliseconds
+     */
+    static SimulatedLatency fromEnvironment(String name, long defaultMillis) {
+        return new SimulatedLatency(EnvConfig.getLong(name, defaultMillis));
+    }
+
+    long sample() {
+        return baseMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+    }
+
+    /**
+     * @return future of the supplied value, completed once the latency has passed
+     */
+    <T> CompletableFuture<T> after(Supplier<T> value) {
+        return CompletableFuture.supplyAsync(value,
+                CompletableFuture.delayedExecutor(sample(), TimeUnit.MILLISECONDS, COMPLETION_EXECUTOR));
+    }
+
+    /**
+     * Block the calling thread for the latency, as a sync client would.
+     */
+    void sleep() {
+        try {
+            Thread.sleep(sample());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
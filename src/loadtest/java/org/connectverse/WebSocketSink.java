@@ -0,0 +1,46 @@
+package org.connectverse;
+
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionResponse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * API Gateway Management stand-in that accepts every post after a simulated latency and counts what was sent.
+ */
+final class WebSocketSink implements ApiGatewayManagementApiClient {
+
+    private final SimulatedLatency latency;
+    private final AtomicLong posts = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    WebSocketSink(SimulatedLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public PostToConnectionResponse postToConnection(PostToConnectionRequest request) {
+        latency.sleep();
+        posts.incrementAndGet();
+        bytes.addAndGet(request.data().asByteArrayUnsafe().length);
+        return PostToConnectionResponse.builder().build();
+    }
+
+    long getPosts() {
+        return posts.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,107 @@
+package org.connectverse;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces decoded PCM chunks of arbitrary size into fixed-duration frames before they are sent to Transcribe.
+ *
+ * <p>Every AudioEvent carries event-stream framing and a signature, so hundreds of tiny events per second waste
+ * bandwidth and CPU, while very large events hold back partial results. Frames of AUDIO_FRAME_MILLIS (default
+ * 100 ms) keep both in check. A partly filled frame is flushed once its oldest byte has waited
+ * AUDIO_FRAME_MAX_WAIT_MS, so a pause in the audio never strands speech in the buffer.</p>
+ *
+ * <p>Not thread-safe; each subscription owns its own aggregator.</p>
+ */
+class AudioFrameAggregator {
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final int frameBytes;
+    private final long maxWaitNanos;
+    private final LongSupplier nanoClock;
+
+    private byte[] frame;
+    private int filled = 0;
+    private long firstByteAt = 0;
+
+    AudioFrameAggregator(int sampleRateHertz, int frameMillis, long maxWaitMillis) {
+        this(sampleRateHertz, frameMillis, maxWaitMillis, System::nanoTime);
+    }
+
+    AudioFrameAggregator(int sampleRateHertz, int frameMillis, long maxWaitMillis, LongSupplier nanoClock) {
+        // Whole samples only, so a frame never splits a 16-bit sample
+        int samples = Math.max(1, sampleRateHertz * frameMillis / 1000);
+        this.frameBytes = samples * BYTES_PER_SAMPLE;
+        this.maxWaitNanos = maxWaitMillis * 1_000_000L;
+        this.nanoClock = nanoClock;
+        this.frame = new byte[frameBytes];
+    }
+
+    int getFrameBytes() {
+        return frameBytes;
+    }
+
+    /**
+     * Add audio and emit every frame that becomes full.
+     */
+    void append(byte[] audio, Consumer<byte[]> frames) {
+        if (filled == 0 && audio.length == frameBytes) {
+            // Already exactly one frame; pass it through without copying
+            frames.accept(audio);
+            return;
+        }
+
+        int offset = 0;
+        while (offset < audio.length) {
+            if (filled == 0) {
+                firstByteAt = nanoClock.getAsLong();
+            }
+            int count = Math.min(frameBytes - filled, audio.length - offset);
+            System.arraycopy(audio, offset, frame, filled, count);
+            filled += count;
+            offset += count;
+
+            if (filled == frameBytes) {
+                frames.accept(frame);
+                frame = new byte[frameBytes];
+                filled = 0;
+            }
+        }
+    }
+
+    /**
+     * Emit the partly filled frame if it has waited longer than the maximum wait.
+     *
+     * @return true if a frame was emitted
+     */
+    boolean flushIfStale(Consumer<byte[]> frames) {
+        if (filled > 0 && nanoClock.getAsLong() - firstByteAt >= maxWaitNanos) {
+            flush(frames);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Emit whatever is buffered, regardless of age.
+     */
+    void flush(Consumer<byte[]> frames) {
+        if (filled == 0) {
+            return;
+        }
+        frames.accept(Arrays.copyOf(frame, filled));
+        filled = 0;
+    }
+
+    /**
+     * @return nanoseconds until the buffered audio must be flushed, or Long.MAX_VALUE when nothing is buffered
+     */
+    long nanosUntilFlush() {
+        if (filled == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, maxWaitNanos - (nanoClock.getAsLong() - firstByteAt));
+    }
+}
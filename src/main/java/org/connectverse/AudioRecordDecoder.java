@@ -0,0 +1,151 @@
+package org.connectverse;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+/**
+ * Decodes Kinesis records (Base64 encoded 16-bit PCM) into audio chunks for AudioEvents.
+ *
+ * <p>Each record is read through {@link SdkBytes#asByteArrayUnsafe()} and decoded exactly once. With the
+ * {@link ChunkingPolicy#PER_RECORD} policy the output array is sized up front and handed to the AudioEvent without
+ * another copy; with {@link ChunkingPolicy#FIXED_SIZE} the record is decoded into a reusable scratch buffer and
+ * each chunk is copied out once.</p>
+ *
+ * <p>The decoder counts the PCM bytes it produced and the bytes it allocated for them. With
+ * AUDIO_ALLOCATION_TRACKING=true it also samples the real allocation of the decoding thread, which is what the
+ * bytes-allocated-per-audio-second figure is based on.</p>
+ *
+ * <p>Not thread-safe; each subscription owns its own decoder.</p>
+ */
+class AudioRecordDecoder {
+
+    /**
+     * How decoded audio is cut into AudioEvents.
+     */
+    enum ChunkingPolicy {
+        /** One AudioEvent per Kinesis record, whatever its size */
+        PER_RECORD,
+        /** AudioEvents of at most a fixed number of bytes */
+        FIXED_SIZE
+    }
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final Base64.Decoder base64 = Base64.getDecoder();
+    private final ChunkingPolicy chunkingPolicy;
+    private final int chunkSizeInBytes;
+    private final int sampleRateHertz;
+    private final ThreadMXBean threadMXBean;
+    private byte[] scratch = new byte[0];
+
+    private long recordsDecoded = 0;
+    private long audioBytes = 0;
+    private long payloadBytesAllocated = 0;
+    private long threadBytesAllocated = 0;
+
+    AudioRecordDecoder(ChunkingPolicy chunkingPolicy, int chunkSizeInBytes, int sampleRateHertz) {
+        this.chunkingPolicy = chunkingPolicy;
+        this.chunkSizeInBytes = chunkSizeInBytes;
+        this.sampleRateHertz = sampleRateHertz;
+        this.threadMXBean = EnvConfig.getBoolean("AUDIO_ALLOCATION_TRACKING", false) ? allocationTrackingBean() : null;
+    }
+
+    /**
+     * Decode one record and pass its audio on as one or more chunks. Chunk arrays are owned by the consumer.
+     *
+     * @param data   Base64 encoded record payload
+     * @param chunks receives each decoded chunk
+     */
+    void decode(SdkBytes data, Consumer<byte[]> chunks) {
+        long allocatedBefore = threadMXBean != null ? allocatedBytes() : 0;
+
+        byte[] encoded = data.asByteArrayUnsafe();
+        int length = decodedLength(encoded);
+
+        if (chunkingPolicy == ChunkingPolicy.PER_RECORD || length <= chunkSizeInBytes) {
+            byte[] audio = new byte[length];
+            base64.decode(encoded, audio);
+            payloadBytesAllocated += length;
+            chunks.accept(audio);
+        } else {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            base64.decode(encoded, scratch);
+            for (int offset = 0; offset < length; offset += chunkSizeInBytes) {
+                byte[] chunk = Arrays.copyOfRange(scratch, offset, Math.min(length, offset + chunkSizeInBytes));
+                payloadBytesAllocated += chunk.length;
+                chunks.accept(chunk);
+            }
+        }
+
+        recordsDecoded++;
+        audioBytes += length;
+        if (threadMXBean != null) {
+            threadBytesAllocated += allocatedBytes() - allocatedBefore;
+        }
+    }
+
+    /**
+     * Size of the data a Base64 string decodes to, accepting input with or without padding.
+     */
+    static int decodedLength(byte[] encoded) {
+        int length = encoded.length;
+        if (length == 0) {
+            return 0;
+        }
+        int padding = 0;
+        if (encoded[length - 1] == '=') {
+            padding++;
+            if (length > 1 && encoded[length - 2] == '=') {
+                padding++;
+            }
+        }
+        int unpadded = length - padding;
+        int remainder = unpadded % 4;
+        return unpadded / 4 * 3 + (remainder == 0 ? 0 : remainder - 1);
+    }
+
+    long getRecordsDecoded() {
+        return recordsDecoded;
+    }
+
+    long getAudioBytes() {
+        return audioBytes;
+    }
+
+    double getAudioSeconds() {
+        return (double) audioBytes / (sampleRateHertz * BYTES_PER_SAMPLE);
+    }
+
+    /**
+     * @return measured thread allocation per second of audio when tracking is on, otherwise the bytes allocated
+     * for audio payloads alone
+     */
+    double getBytesAllocatedPerAudioSecond() {
+        double seconds = getAudioSeconds();
+        if (seconds == 0) {
+            return 0;
+        }
+        return (threadMXBean != null ? threadBytesAllocated : payloadBytesAllocated) / seconds;
+    }
+
+    private long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static ThreadMXBean allocationTrackingBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+package org.connectverse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What a new attempt of a Transcribe stream needs in order to carry on where the failed attempt stopped.
+ *
+ * <p>It remembers the last Kinesis sequence number consumed from every shard, so the next subscription resumes
+ * with AFTER_SEQUENCE_NUMBER instead of LATEST and audio spoken during the reconnect is not skipped. It also keeps
+ * the last AUDIO_REPLAY_MILLIS of audio sent to Transcribe (default 1000 ms, 0 disables), which is replayed first
+ * on reconnect because the failed session most likely never finished transcribing it.</p>
+ *
+ * <p>Audio that was read from Kinesis but never sent is kept apart from that window and always goes out on
+ * reconnect, whatever AUDIO_REPLAY_MILLIS is: the checkpoints are already past it, so no later read brings it
+ * back.</p>
+ */
+class AudioStreamResumeState {
+
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final long DEFAULT_REPLAY_MILLIS = 1000;
+
+    private final Map<String, String> checkpoints = new ConcurrentHashMap<>();
+    private final ArrayDeque<byte[]> replay = new ArrayDeque<>();
+    private final List<byte[]> unsent = new ArrayList<>();
+    private final long maxReplayBytes;
+    private long replayBytes = 0;
+
+    AudioStreamResumeState(int sampleRateHertz) {
+        this(sampleRateHertz, EnvConfig.getLong("AUDIO_REPLAY_MILLIS", DEFAULT_REPLAY_MILLIS));
+    }
+
+    AudioStreamResumeState(int sampleRateHertz, long replayMillis) {
+        this.maxReplayBytes = sampleRateHertz * BYTES_PER_SAMPLE * replayMillis / 1000;
+    }
+
+    void checkpoint(String shardId, String sequenceNumber) {
+        checkpoints.put(shardId, sequenceNumber);
+    }
+
+    Map<String, String> getCheckpoints() {
+        return new HashMap<>(checkpoints);
+    }
+
+    /**
+     * Remember audio that was handed to Transcribe, dropping the oldest audio beyond the replay window.
+     */
+    synchronized void recordSent(byte[] audio) {
+        if (maxReplayBytes <= 0) {
+            return;
+        }
+        replay.addLast(audio);
+        replayBytes += audio.length;
+        while (replayBytes > maxReplayBytes && replay.size() > 1) {
+            replayBytes -= replay.removeFirst().length;
+        }
+    }
+
+    /**
+     * Remember audio that was consumed from Kinesis but not handed to Transcribe. It is never dropped.
+     */
+    synchronized void recordUnsent(byte[] audio) {
+        unsent.add(audio);
+    }
+
+    /**
+     * Hand over the audio to replay, the replay window followed by the unsent audio, and start afresh. Replayed audio
+     * is recorded again as it is resent.
+     */
+    synchronized List<byte[]> takeReplay() {
+        List<byte[]> audio = new ArrayList<>(replay.size() + unsent.size());
+        audio.addAll(replay);
+        audio.addAll(unsent);
+        replay.clear();
+        unsent.clear();
+        replayBytes = 0;
+        return audio;
+    }
+}
@@ -0,0 +1,260 @@
+package org.connectverse;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.polly.PollyAsyncClient;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+import software.amazon.awssdk.services.translate.TranslateAsyncClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Process-wide registry of AWS clients.
+ *
+ * <p>Clients are created lazily on first use and then kept in static fields, so a warm Lambda container reuses
+ * them (and their pooled, already-handshaked connections) across handleRequest calls. The sync clients share
+ * one Apache connection pool and the async clients (Transcribe, Translate, Polly, Kinesis fan-out) share one Netty
+ * event loop group. Callers must not close
+ * clients obtained from here.</p>
+ *
+ * <p>{@link #override(Overrides)} swaps in other implementations, such as the in-process fakes of the load test.</p>
+ */
+public final class AwsClients {
+
+    static final Region REGION = Region.US_EAST_1;
+    static final String TRANSCRIBE_ENDPOINT = "https://transcribestreaming." + REGION.id() + ".amazonaws.com";
+
+    private static final int MAX_CONNECTIONS = EnvConfig.getInt("AWS_HTTP_MAX_CONNECTIONS", 50);
+    private static final Duration CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(60);
+
+    private static final ConcurrentMap<String, ApiGatewayManagementApiClient> API_GATEWAY_CLIENTS = new ConcurrentHashMap<>();
+
+    // Null unless an offline harness replaced the real clients
+    private static volatile Overrides overrides;
+
+    private AwsClients() {
+    }
+
+    /**
+     * Use the given clients instead of the real ones. Must be called before any client is first requested; clients
+     * that were already handed out are not replaced. Clients left unset in the overrides stay real.
+     */
+    public static void override(Overrides replacement) {
+        overrides = replacement;
+        API_GATEWAY_CLIENTS.clear();
+    }
+
+    public static AwsCredentialsProvider credentialsProvider() {
+        return DefaultCredentialsProvider.create();
+    }
+
+    public static SdkHttpClient httpClient() {
+        return HttpClientHolder.INSTANCE;
+    }
+
+    public static SdkEventLoopGroup eventLoopGroup() {
+        return EventLoopGroupHolder.INSTANCE;
+    }
+
+    public static TranslateAsyncClient translate() {
+        Overrides o = overrides;
+        return o != null && o.translate != null ? o.translate : TranslateHolder.INSTANCE;
+    }
+
+    public static PollyAsyncClient polly() {
+        Overrides o = overrides;
+        return o != null && o.polly != null ? o.polly : PollyHolder.INSTANCE;
+    }
+
+    public static DynamoDbClient dynamoDb() {
+        Overrides o = overrides;
+        return o != null && o.dynamoDb != null ? o.dynamoDb : DynamoDbHolder.INSTANCE;
+    }
+
+    public static KinesisClient kinesis() {
+        Overrides o = overrides;
+        return o != null && o.kinesis != null ? o.kinesis : KinesisHolder.INSTANCE;
+    }
+
+    /**
+     * Async Kinesis client, used for enhanced fan-out (SubscribeToShard) reads.
+     */
+    public static KinesisAsyncClient kinesisAsync() {
+        Overrides o = overrides;
+        return o != null && o.kinesisAsync != null ? o.kinesisAsync : KinesisAsyncHolder.INSTANCE;
+    }
+
+    public static TranscribeStreamingAsyncClient transcribeStreaming() {
+        Overrides o = overrides;
+        return o != null && o.transcribeStreaming != null ? o.transcribeStreaming : TranscribeHolder.INSTANCE;
+    }
+
+    /**
+     * The management API client is bound to a WebSocket API stage, so one client is kept per endpoint.
+     *
+     * @param endpoint the https:// endpoint of the WebSocket API stage
+     * @return shared client for that endpoint
+     */
+    public static ApiGatewayManagementApiClient apiGatewayManagement(String endpoint) {
+        Overrides o = overrides;
+        if (o != null && o.apiGatewayManagement != null) {
+            return API_GATEWAY_CLIENTS.computeIfAbsent(endpoint, o.apiGatewayManagement);
+        }
+        return API_GATEWAY_CLIENTS.computeIfAbsent(endpoint, e -> ApiGatewayManagementApiClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(httpClient())
+                .endpointOverride(URI.create(e))
+                .build());
+    }
+
+    /**
+     * Replacement clients for {@link #override(Overrides)}.
+     */
+    public static final class Overrides {
+        private TranslateAsyncClient translate;
+        private PollyAsyncClient polly;
+        private DynamoDbClient dynamoDb;
+        private KinesisClient kinesis;
+        private KinesisAsyncClient kinesisAsync;
+        private TranscribeStreamingAsyncClient transcribeStreaming;
+        private Function<String, ApiGatewayManagementApiClient> apiGatewayManagement;
+
+        public Overrides translate(TranslateAsyncClient translate) {
+            this.translate = translate;
+            return this;
+        }
+
+        public Overrides polly(PollyAsyncClient polly) {
+            this.polly = polly;
+            return this;
+        }
+
+        public Overrides dynamoDb(DynamoDbClient dynamoDb) {
+            this.dynamoDb = dynamoDb;
+            return this;
+        }
+
+        public Overrides kinesis(KinesisClient kinesis) {
+            this.kinesis = kinesis;
+            return this;
+        }
+
+        public Overrides kinesisAsync(KinesisAsyncClient kinesisAsync) {
+            this.kinesisAsync = kinesisAsync;
+            return this;
+        }
+
+        public Overrides transcribeStreaming(TranscribeStreamingAsyncClient transcribeStreaming) {
+            this.transcribeStreaming = transcribeStreaming;
+            return this;
+        }
+
+        /**
+         * @param apiGatewayManagement creates the client for a WebSocket API endpoint
+         */
+        public Overrides apiGatewayManagement(Function<String, ApiGatewayManagementApiClient> apiGatewayManagement) {
+            this.apiGatewayManagement = apiGatewayManagement;
+            return this;
+        }
+    }
+
+    // Each holder is initialized by the JVM on first access, which gives lazy, thread-safe singletons for free
+
+    private static class HttpClientHolder {
+        static final SdkHttpClient INSTANCE = ApacheHttpClient.builder()
+                .maxConnections(MAX_CONNECTIONS)
+                .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME)
+                .tcpKeepAlive(true)
+                .build();
+    }
+
+    private static class EventLoopGroupHolder {
+        static final SdkEventLoopGroup INSTANCE = SdkEventLoopGroup.builder().build();
+    }
+
+    private static class AsyncHttpClientHolder {
+        // Translate and Polly speak HTTP/1.1; their requests run on the same event loop group as Transcribe
+        static final SdkAsyncHttpClient INSTANCE = NettyNioAsyncHttpClient.builder()
+                .eventLoopGroup(eventLoopGroup())
+                .protocol(Protocol.HTTP1_1)
+                .maxConcurrency(MAX_CONNECTIONS)
+                .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME)
+                .tcpKeepAlive(true)
+                .build();
+    }
+
+    private static class TranslateHolder {
+        static final TranslateAsyncClient INSTANCE = TranslateAsyncClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(AsyncHttpClientHolder.INSTANCE)
+                .build();
+    }
+
+    private static class PollyHolder {
+        static final PollyAsyncClient INSTANCE = PollyAsyncClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(AsyncHttpClientHolder.INSTANCE)
+                .build();
+    }
+
+    private static class DynamoDbHolder {
+        static final DynamoDbClient INSTANCE = DynamoDbClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(httpClient())
+                .build();
+    }
+
+    private static class KinesisHolder {
+        static final KinesisClient INSTANCE = KinesisClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(httpClient())
+                .build();
+    }
+
+    private static class Http2ClientHolder {
+        // Transcribe streaming and Kinesis SubscribeToShard need HTTP/2, so they share a Netty client of their own
+        // on the shared event loop group
+        static final SdkAsyncHttpClient INSTANCE = NettyNioAsyncHttpClient.builder()
+                .eventLoopGroup(eventLoopGroup())
+                .protocol(Protocol.HTTP2)
+                .maxConcurrency(MAX_CONNECTIONS)
+                .build();
+    }
+
+    private static class KinesisAsyncHolder {
+        static final KinesisAsyncClient INSTANCE = KinesisAsyncClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(Http2ClientHolder.INSTANCE)
+                .build();
+    }
+
+    private static class TranscribeHolder {
+        static final TranscribeStreamingAsyncClient INSTANCE = TranscribeStreamingAsyncClient.builder()
+                .region(REGION)
+                .credentialsProvider(credentialsProvider())
+                .endpointOverride(URI.create(TRANSCRIBE_ENDPOINT))
+                .httpClient(Http2ClientHolder.INSTANCE)
+                .build();
+    }
+}
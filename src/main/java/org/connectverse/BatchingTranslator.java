@@ -0,0 +1,195 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.translate.TranslateAsyncClient;
+import software.amazon.awssdk.services.translate.model.TranslateTextRequest;
+import software.amazon.awssdk.services.translate.model.TranslateTextResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combines the Translate requests of concurrent calls in one container into fewer, larger requests.
+ *
+ * <p>Segments are queued per language pair. A batch is sent TRANSLATE_BATCH_WINDOW_MS after its first segment
+ * arrived, or earlier once it holds TRANSLATE_BATCH_MAX_SEGMENTS segments or gets close to the Translate request
+ * size limit. The segments are joined with line breaks, which Translate keeps, and the translation is split back
+ * to complete each caller's future. Real-time Translate has no multi-document API (batch translation jobs work on
+ * documents in S3 and take minutes), so one delimited request is how segments are combined.</p>
+ *
+ * <p>This trades a few milliseconds per segment for far fewer requests against the account's Translate quota.
+ * It is off unless TRANSLATE_BATCH_WINDOW_MS is above zero.</p>
+ */
+public class BatchingTranslator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingTranslator.class);
+
+    private static final String SEGMENT_SEPARATOR = "\n";
+    private static final int DEFAULT_MAX_SEGMENTS = 16;
+    // Translate accepts at most 10,000 bytes of UTF-8 text per request
+    private static final int DEFAULT_MAX_BYTES = 9000;
+
+    private final TranslateAsyncClient translate;
+    private final long windowMillis;
+    private final int maxSegments;
+    private final int maxBytes;
+    private final ScheduledExecutorService timer;
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+
+    public BatchingTranslator(TranslateAsyncClient translate, long windowMillis, int maxSegments, int maxBytes) {
+        this.translate = translate;
+        this.windowMillis = Math.max(1, windowMillis);
+        this.maxSegments = Math.max(1, maxSegments);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.timer = Executors.newSingleThreadScheduledExecutor(ExecutorFactory.daemonThreadFactory("translate-batch-timer"));
+    }
+
+    /**
+     * @return a batcher configured from the environment, or null if batching is disabled
+     */
+    static BatchingTranslator fromEnvironment() {
+        long windowMillis = EnvConfig.getLong("TRANSLATE_BATCH_WINDOW_MS", 0);
+        if (windowMillis <= 0) {
+            return null;
+        }
+        return new BatchingTranslator(AwsClients.translate(), windowMillis,
+                EnvConfig.getInt("TRANSLATE_BATCH_MAX_SEGMENTS", DEFAULT_MAX_SEGMENTS),
+                EnvConfig.getInt("TRANSLATE_BATCH_MAX_BYTES", DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Queue a segment for translation.
+     *
+     * @return future completed with the translation once the segment's batch has been translated
+     */
+    public CompletableFuture<String> translate(String sourceLanguage, String targetLanguage, String text) {
+        // A line break inside a segment would shift every segment after it
+        String segment = text.replace('\n', ' ');
+        int bytes = segment.getBytes(StandardCharsets.UTF_8).length + SEGMENT_SEPARATOR.length();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        String key = sourceLanguage + "|" + targetLanguage;
+
+        List<Batch> ready = new ArrayList<>(2);
+        synchronized (this) {
+            Batch batch = pending.get(key);
+            if (batch != null && batch.bytes + bytes > maxBytes) {
+                pending.remove(key);
+                ready.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                Batch created = new Batch(sourceLanguage, targetLanguage);
+                pending.put(key, created);
+                timer.schedule(() -> flush(key, created), windowMillis, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+            batch.add(segment, bytes, result);
+            if (batch.texts.size() >= maxSegments || batch.bytes >= maxBytes) {
+                pending.remove(key);
+                ready.add(batch);
+            }
+        }
+
+        // Sending only starts the async request, so it is fine to do on the caller's thread
+        for (Batch batch : ready) {
+            send(batch);
+        }
+        return result;
+    }
+
+    private void flush(String key, Batch batch) {
+        synchronized (this) {
+            // The batch may already have gone out because it filled up
+            if (pending.get(key) != batch) {
+                return;
+            }
+            pending.remove(key);
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        CompletableFuture<Void> done;
+        if (batch.texts.size() == 1) {
+            done = translateBatch(batch.sourceLanguage, batch.targetLanguage, batch.texts.get(0))
+                    .thenAccept(batch.results.get(0)::complete);
+        } else {
+            done = translateBatch(batch.sourceLanguage, batch.targetLanguage, String.join(SEGMENT_SEPARATOR, batch.texts))
+                    .thenCompose(translation -> {
+                        String[] lines = translation.split(SEGMENT_SEPARATOR);
+                        if (lines.length == batch.texts.size()) {
+                            for (int i = 0; i < lines.length; i++) {
+                                batch.results.get(i).complete(lines[i].trim());
+                            }
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        logger.warn("Batched translation returned {} lines for {} segments, translating them separately",
+                                lines.length, batch.texts.size());
+                        CompletableFuture<?>[] separate = new CompletableFuture<?>[batch.texts.size()];
+                        for (int i = 0; i < separate.length; i++) {
+                            separate[i] = translateBatch(batch.sourceLanguage, batch.targetLanguage, batch.texts.get(i))
+                                    .thenAccept(batch.results.get(i)::complete);
+                        }
+                        return CompletableFuture.allOf(separate);
+                    });
+        }
+
+        done.whenComplete((ignored, e) -> {
+            if (e != null) {
+                for (CompletableFuture<String> result : batch.results) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    CompletableFuture<String> translateBatch(String sourceLanguage, String targetLanguage, String text) {
+        requests.incrementAndGet();
+        segments.addAndGet(text.split(SEGMENT_SEPARATOR).length);
+        TranslateTextRequest request = TranslateTextRequest.builder()
+                .text(text)
+                .sourceLanguageCode(sourceLanguage)
+                .targetLanguageCode(targetLanguage)
+                .build();
+        return translate.translateText(request).thenApply(TranslateTextResponse::translatedText);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getSegments() {
+        return segments.get();
+    }
+
+    private static class Batch {
+        private final String sourceLanguage;
+        private final String targetLanguage;
+        private final List<String> texts = new ArrayList<>();
+        private final List<CompletableFuture<String>> results = new ArrayList<>();
+        private int bytes;
+
+        Batch(String sourceLanguage, String targetLanguage) {
+            this.sourceLanguage = sourceLanguage;
+            this.targetLanguage = targetLanguage;
+        }
+
+        void add(String text, int textBytes, CompletableFuture<String> result) {
+            texts.add(text);
+            results.add(result);
+            bytes += textBytes;
+        }
+    }
+}
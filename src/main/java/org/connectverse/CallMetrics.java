@@ -0,0 +1,234 @@
+package org.connectverse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-stage latencies of the utterances of one call leg.
+ *
+ * <p>Every delivered {@link Utterance} adds one sample per stage, taken from its stage timestamps. {@link #flush()}
+ * writes the samples as EMF metrics, so CloudWatch can compute percentiles across all calls, and adds the p50 and
+ * p99 of this call as plain log fields for Logs Insights queries.</p>
+ *
+ * <p>Samples are also flushed while the call runs: once METRICS_MAX_SAMPLES utterances (default 100, one EMF line)
+ * have been recorded, or METRICS_FLUSH_INTERVAL_SECONDS (default 60) after the previous flush. Long calls therefore
+ * report as they go and never hold more than that in memory; the percentile fields cover one flush each.</p>
+ *
+ * <p>Utterances whose post failed are counted as FailedDeliveries and add no latency samples.</p>
+ *
+ * <p>When the call ends, the receiver's WebSocket connection lookups are added as ConnectionLookups,
+ * ConnectionRefreshes and the average ConnectionLookupLatency.</p>
+ *
+ * <p>The transcribe stage starts at the end of the utterance's audio, estimated from the result's end offset and
+ * the time the Transcribe stream was opened. It therefore also includes the Kinesis and buffering delay.</p>
+ *
+ * <p>A flush listener sees every call's samples before they are written, which is how the load test aggregates
+ * latencies across calls.</p>
+ */
+class CallMetrics {
+
+    enum Stage {
+        TRANSCRIBE("TranscribeLatency"),
+        TRANSLATE("TranslateLatency"),
+        SYNTHESIZE("SynthesizeLatency"),
+        DELIVER("DeliverLatency"),
+        END_TO_END("EndToEndLatency");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    static final String FAILED_DELIVERIES = "FailedDeliveries";
+    static final String CONNECTION_LOOKUPS = "ConnectionLookups";
+    static final String CONNECTION_REFRESHES = "ConnectionRefreshes";
+    static final String CONNECTION_LOOKUP_LATENCY = "ConnectionLookupLatency";
+
+    private static final int DEFAULT_MAX_SAMPLES = MetricsUtil.MAX_VALUES_PER_LINE;
+    private static final long DEFAULT_FLUSH_INTERVAL_SECONDS = 60;
+
+    // Set by offline harnesses only
+    private static volatile Consumer<CallMetrics> flushListener;
+
+    private final String contactId;
+    private final String communicator;
+    private final Map<Stage, List<Long>> samples = new EnumMap<>(Stage.class);
+    private final int maxSamples;
+    private final long flushIntervalMillis;
+    private final LongSupplier clock;
+    private long lastFlushMillis;
+    private long failedDeliveries = 0;
+    private long connectionLookups = 0;
+    private long connectionRefreshes = 0;
+    private double connectionLookupMillis = 0;
+
+    CallMetrics(String contactId, String communicator) {
+        this(contactId, communicator,
+                EnvConfig.getInt("METRICS_MAX_SAMPLES", DEFAULT_MAX_SAMPLES),
+                EnvConfig.getLong("METRICS_FLUSH_INTERVAL_SECONDS", DEFAULT_FLUSH_INTERVAL_SECONDS) * 1000,
+                System::currentTimeMillis);
+    }
+
+    CallMetrics(String contactId, String communicator, int maxSamples, long flushIntervalMillis, LongSupplier clock) {
+        this.contactId = contactId;
+        this.communicator = communicator;
+        this.maxSamples = Math.max(1, maxSamples);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.clock = clock;
+        this.lastFlushMillis = clock.getAsLong();
+        for (Stage stage : Stage.values()) {
+            samples.put(stage, new ArrayList<>());
+        }
+    }
+
+    synchronized void recordUtterance(Utterance utterance) {
+        long audioEnd = utterance.getTimestamp(Utterance.Stage.AUDIO_END);
+        long submitted = utterance.getTimestamp(Utterance.Stage.SUBMITTED);
+        long translated = utterance.getTimestamp(Utterance.Stage.TRANSLATED);
+        long synthesized = utterance.getTimestamp(Utterance.Stage.SYNTHESIZED);
+        long posted = utterance.getTimestamp(Utterance.Stage.POSTED);
+
+        if (audioEnd > 0) {
+            record(Stage.TRANSCRIBE, submitted - audioEnd);
+        }
+        record(Stage.TRANSLATE, translated - submitted);
+        record(Stage.SYNTHESIZE, synthesized - translated);
+        record(Stage.DELIVER, posted - synthesized);
+        record(Stage.END_TO_END, posted - (audioEnd > 0 ? audioEnd : submitted));
+        flushIfDue();
+    }
+
+    synchronized void recordFailedDelivery() {
+        failedDeliveries++;
+        flushIfDue();
+    }
+
+    synchronized long getFailedDeliveries() {
+        return failedDeliveries;
+    }
+
+    /**
+     * Add the connection lookups of a {@link WebSocketStreamer}, written with the next flush.
+     *
+     * @param averageMillis average time of one lookup
+     */
+    synchronized void recordConnectionLookups(long lookups, long refreshes, double averageMillis) {
+        connectionLookups = lookups;
+        connectionRefreshes = refreshes;
+        connectionLookupMillis = averageMillis;
+    }
+
+    synchronized long getConnectionLookups() {
+        return connectionLookups;
+    }
+
+    synchronized long getConnectionRefreshes() {
+        return connectionRefreshes;
+    }
+
+    private void flushIfDue() {
+        if (samples.get(Stage.END_TO_END).size() >= maxSamples
+                || clock.getAsLong() - lastFlushMillis >= flushIntervalMillis) {
+            flush();
+        }
+    }
+
+    synchronized void record(Stage stage, long millis) {
+        samples.get(stage).add(Math.max(0, millis));
+    }
+
+    /**
+     * @return the sample at the given percentile (nearest rank), or -1 if there are no samples
+     */
+    synchronized long percentile(Stage stage, double percentile) {
+        List<Long> sorted = new ArrayList<>(samples.get(stage));
+        if (sorted.isEmpty()) {
+            return -1;
+        }
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    synchronized int count(Stage stage) {
+        return samples.get(stage).size();
+    }
+
+    synchronized List<Long> samples(Stage stage) {
+        return new ArrayList<>(samples.get(stage));
+    }
+
+    static void setFlushListener(Consumer<CallMetrics> listener) {
+        flushListener = listener;
+    }
+
+    /**
+     * Write the recorded samples as EMF lines and start over.
+     */
+    synchronized void flush() {
+        Consumer<CallMetrics> listener = flushListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+
+        JSONObject properties = new JSONObject()
+                .put("ContactId", String.valueOf(contactId))
+                .put("Communicator", String.valueOf(communicator));
+        Map<String, String> units = new HashMap<>();
+        units.put(FAILED_DELIVERIES, MetricsUtil.UNIT_COUNT);
+        units.put(CONNECTION_LOOKUPS, MetricsUtil.UNIT_COUNT);
+        units.put(CONNECTION_REFRESHES, MetricsUtil.UNIT_COUNT);
+        units.put(CONNECTION_LOOKUP_LATENCY, MetricsUtil.UNIT_MILLISECONDS);
+        for (Stage stage : Stage.values()) {
+            units.put(stage.metricName, MetricsUtil.UNIT_MILLISECONDS);
+            if (!samples.get(stage).isEmpty()) {
+                properties.put(stage.metricName + "P50", percentile(stage, 50));
+                properties.put(stage.metricName + "P99", percentile(stage, 99));
+            }
+        }
+
+        // One line per 100 samples of each stage; the percentile fields go on the first line only
+        for (int offset = 0; ; offset += MetricsUtil.MAX_VALUES_PER_LINE) {
+            JSONObject values = new JSONObject();
+            if (offset == 0 && failedDeliveries > 0) {
+                values.put(FAILED_DELIVERIES, failedDeliveries);
+            }
+            if (offset == 0 && connectionLookups > 0) {
+                values.put(CONNECTION_LOOKUPS, connectionLookups);
+                values.put(CONNECTION_REFRESHES, connectionRefreshes);
+                values.put(CONNECTION_LOOKUP_LATENCY, connectionLookupMillis);
+            }
+            for (Stage stage : Stage.values()) {
+                List<Long> stageSamples = samples.get(stage);
+                if (offset < stageSamples.size()) {
+                    int end = Math.min(stageSamples.size(), offset + MetricsUtil.MAX_VALUES_PER_LINE);
+                    values.put(stage.metricName, new JSONArray(stageSamples.subList(offset, end)));
+                }
+            }
+            if (values.isEmpty()) {
+                break;
+            }
+            MetricsUtil.emit(values, units, offset == 0 ? properties : new JSONObject()
+                    .put("ContactId", String.valueOf(contactId))
+                    .put("Communicator", String.valueOf(communicator)));
+        }
+
+        samples.values().forEach(List::clear);
+        failedDeliveries = 0;
+        connectionLookups = 0;
+        connectionRefreshes = 0;
+        connectionLookupMillis = 0;
+        lastFlushMillis = clock.getAsLong();
+    }
+}
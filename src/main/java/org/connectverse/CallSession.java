@@ -0,0 +1,96 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The two legs of one call, customer and agent, running in the same process.
+ *
+ * <p>Both legs use the languages looked up once for the call. The legs already share the clients from
+ * {@link AwsClients}.</p>
+ *
+ * <p>The session also coordinates turn-taking. When one party starts a new utterance, speech still queued for
+ * them from the other leg is stale, so the other leg's undelivered utterances are cancelled before they are
+ * synthesized or posted. A result only counts as a new utterance once it has CALL_BARGE_IN_MIN_WORDS words
+ * (default 2), so line noise and a lone "uh" do not cut the other party off. CALL_BARGE_IN=false turns this
+ * off.</p>
+ *
+ * <p>Sessions are created by {@link TranslationWorker}, which keeps one per contact ID while any of its legs runs.</p>
+ */
+final class CallSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallSession.class);
+
+    private static final int DEFAULT_BARGE_IN_MIN_WORDS = 2;
+
+    private final String contactId;
+    private final boolean bargeIn;
+    private final int bargeInMinWords;
+    private final Map<Communicator, TranslationPipeline> legs = new ConcurrentHashMap<>();
+    // Per speaker, the result ID that last counted as the start of an utterance
+    private final Map<Communicator, String> utteranceResults = new ConcurrentHashMap<>();
+    private volatile LanguageSettingsService.CallLanguages languages;
+
+    // Number of legs started in this session and not finished yet; only changed by the worker's session map
+    int activeLegs = 0;
+
+    CallSession(String contactId) {
+        this(contactId, EnvConfig.getBoolean("CALL_BARGE_IN", true),
+                EnvConfig.getInt("CALL_BARGE_IN_MIN_WORDS", DEFAULT_BARGE_IN_MIN_WORDS));
+    }
+
+    CallSession(String contactId, boolean bargeIn, int bargeInMinWords) {
+        this.contactId = contactId;
+        this.bargeIn = bargeIn;
+        this.bargeInMinWords = Math.max(1, bargeInMinWords);
+    }
+
+    String getContactId() {
+        return contactId;
+    }
+
+    /**
+     * Fill in the request's languages. Only the first leg looks them up.
+     */
+    void enrich(TranscriptionRequest request) {
+        LanguageSettingsService.CallLanguages current = languages;
+        if (current == null) {
+            synchronized (this) {
+                if (languages == null) {
+                    languages = KDSTranslateLambda.getCallLanguages(contactId);
+                }
+                current = languages;
+            }
+        }
+        KDSTranslateLambda.applyLanguageSettings(request, current);
+    }
+
+    void attach(Communicator communicator, TranslationPipeline pipeline) {
+        legs.put(communicator, pipeline);
+    }
+
+    void detach(Communicator communicator, TranslationPipeline pipeline) {
+        legs.remove(communicator, pipeline);
+    }
+
+    /**
+     * Called for every partial and final result of the given party.
+     *
+     * @param resultId Transcribe's ID of the result, the same for every partial of one utterance
+     * @param words    number of words in the result's transcript
+     */
+    void onTranscript(Communicator speaker, String resultId, int words) {
+        if (!bargeIn || speaker == null || resultId == null || words < bargeInMinWords
+                || resultId.equals(utteranceResults.put(speaker, resultId))) {
+            return;
+        }
+        TranslationPipeline other = legs.get(speaker == Communicator.CUSTOMER ? Communicator.AGENT : Communicator.CUSTOMER);
+        if (other != null) {
+            logger.debug("{} started talking, cancelling queued speech for them", speaker);
+            other.cancelPending();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.connectverse;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.polly.model.DescribeVoicesRequest;
+import software.amazon.awssdk.services.translate.model.ListLanguagesRequest;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Does the one-time work of a cold start ahead of the first call: loads the SDK clients from {@link AwsClients},
+ * builds the request and payload objects of the hot path once so their classes and marshallers are loaded, and
+ * makes one cheap read-only call per service so credentials are resolved and connections are open.
+ *
+ * <p>Registered as a CRaC resource, so with Lambda SnapStart the priming runs before the snapshot is taken and
+ * restored containers start with all of this already done. Connections opened before the snapshot are not reused
+ * after a restore; the SDK reconnects on first use. Without SnapStart, COLD_START_PRIMING=true primes during the
+ * Lambda init phase instead of the first invocation.</p>
+ *
+ * <p>The priming calls need IAM actions the hot path does not: dynamodb:DescribeTable on the connection table,
+ * translate:ListLanguages and polly:DescribeVoices. Without them the calls fail, a warning is logged and the
+ * function carries on unprimed.</p>
+ */
+final class ColdStartPriming implements Resource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ColdStartPriming.class);
+
+    // CRaC only keeps weak references to registered resources
+    private static final ColdStartPriming INSTANCE = new ColdStartPriming();
+
+    private ColdStartPriming() {
+    }
+
+    static void register() {
+        Core.getGlobalContext().register(INSTANCE);
+        if (EnvConfig.getBoolean("COLD_START_PRIMING", false)) {
+            INSTANCE.prime();
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        prime();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        logger.info("Restored from snapshot");
+    }
+
+    void prime() {
+        long start = System.nanoTime();
+
+        // Class loading and serializer warm-up for the per-utterance path, no network involved
+        KDSTranslateLambda.getRequest(16000, Optional.empty());
+        WebSocketStreamer.buildFramePayload(0, 0, true, ByteBuffer.wrap(new byte[4]));
+        new AudioRecordDecoder(AudioRecordDecoder.ChunkingPolicy.PER_RECORD, 1024, 16000);
+        AwsClients.apiGatewayManagement(StreamTranscriptionBehaviorImpl.WEBSOCKET_ENDPOINT);
+        AwsClients.transcribeStreaming();
+        AwsClients.kinesis();
+
+        // Read-only calls that resolve credentials and open a connection to each request/response service
+        try {
+            AwsClients.dynamoDb().describeTable(DescribeTableRequest.builder()
+                    .tableName(StreamTranscriptionBehaviorImpl.CONNECTION_TABLE).build());
+            AwsClients.translate().listLanguages(ListLanguagesRequest.builder().build()).join();
+            AwsClients.polly().describeVoices(DescribeVoicesRequest.builder().languageCode("en-US").build()).join();
+        } catch (Exception e) {
+            logger.warn("Priming calls failed, continuing without them: {}", e.toString());
+        }
+
+        logger.info("Primed clients in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+}
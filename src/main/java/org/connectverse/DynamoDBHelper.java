@@ -1,22 +1,29 @@
 package org.connectverse;
 
-import software.amazon.awssdk.regions.Region;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
 
+import java.util.HashMap;
 import java.util.Map;
 
 public class DynamoDBHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBHelper.class);
     private final DynamoDbClient dbClient;
 
     public DynamoDBHelper() {
-        // Initialize DynamoDB client with the default credentials and specified region
-        this.dbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        // Reuse the process-wide DynamoDB client so warm invocations skip client and connection setup
+        this(AwsClients.dynamoDb());
+    }
+
+    public DynamoDBHelper(DynamoDbClient dbClient) {
+        this.dbClient = dbClient;
     }
 
     public QueryResponse queryByCommunicator(String tableName, String indexName, String communicatorValue) {
@@ -30,7 +37,7 @@ public class DynamoDBHelper {
 
             return dbClient.query(queryRequest);
         } catch (DynamoDbException e) {
-            System.err.println("Error querying DynamoDB: " + e.getMessage());
+            logger.error("Error querying DynamoDB: {}", e.getMessage());
             throw e;  // Re-throw the exception after logging
         }
     }
@@ -46,13 +53,40 @@ public class DynamoDBHelper {
 
             return dbClient.query(queryRequest).items().get(0);
         } catch (DynamoDbException e) {
-            System.err.println("Error querying DynamoDB by primary key: " + e.getMessage());
+            logger.error("Error querying DynamoDB by primary key: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Read one item by its partition key, fetching only the given attributes.
+     *
+     * @return the projected attributes, or an empty map if there is no such item
+     */
+    public Map<String, AttributeValue> getItem(String tableName, String primaryKey, String primaryKeyValue,
+                                               String... attributes) {
+        try {
+            GetItemRequest.Builder request = GetItemRequest.builder()
+                    .tableName(tableName)
+                    .key(Map.of(primaryKey, AttributeValue.builder().s(primaryKeyValue).build()));
+            if (attributes.length > 0) {
+                // Placeholders keep attribute names that are DynamoDB reserved words usable
+                Map<String, String> names = new HashMap<>();
+                StringBuilder projection = new StringBuilder();
+                for (int i = 0; i < attributes.length; i++) {
+                    names.put("#a" + i, attributes[i]);
+                    projection.append(i == 0 ? "" : ", ").append("#a").append(i);
+                }
+                request.projectionExpression(projection.toString()).expressionAttributeNames(names);
+            }
+            return dbClient.getItem(request.build()).item();
+        } catch (DynamoDbException e) {
+            logger.error("Error reading DynamoDB item: {}", e.getMessage());
             throw e;
         }
     }
 
     public void close() {
-        // Close the DynamoDB client connection
-        dbClient.close();
+        // The client is shared through AwsClients and outlives this helper, so there is nothing to release here
     }
 }
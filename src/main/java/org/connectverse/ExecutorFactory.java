@@ -0,0 +1,102 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used by the streaming pipeline. All threads are named daemon threads so that a
+ * stuck stage can never keep the Lambda runtime from finishing an invocation.
+ *
+ * <p>With EXECUTION_MODE=virtual the per-session executors run their tasks on virtual threads, so the blocking
+ * SDK calls of thousands of call legs do not need thousands of platform threads. Pool sizes still bound the
+ * concurrency of each stage. Virtual threads need JDK 21; on older runtimes the factory logs a warning and
+ * uses platform threads. Timers always use platform threads.</p>
+ */
+final class ExecutorFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorFactory.class);
+
+    private static final boolean VIRTUAL_THREADS = resolveVirtualThreads();
+
+    private ExecutorFactory() {
+    }
+
+    static ExecutorService newFixedThreadPool(String name, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), threadFactory(name));
+    }
+
+    static ExecutorService newSingleThreadExecutor(String name) {
+        return Executors.newSingleThreadExecutor(threadFactory(name));
+    }
+
+    /**
+     * Executor for an open-ended number of blocking tasks, such as starting the audio subscription of a retry.
+     * With virtual threads every task gets a new thread; otherwise platform threads are cached and reused.
+     */
+    static ExecutorService newTaskExecutor(String name) {
+        if (VIRTUAL_THREADS) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, virtualThreadFactory(name));
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Could not create a virtual thread executor for {}: {}", name, e.toString());
+            }
+        }
+        return Executors.newCachedThreadPool(daemonThreadFactory(name));
+    }
+
+    static boolean isVirtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        if (VIRTUAL_THREADS) {
+            try {
+                return virtualThreadFactory(name);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Could not create virtual threads for {}: {}", name, e.toString());
+            }
+        }
+        return daemonThreadFactory(name);
+    }
+
+    static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Thread.ofVirtual().name(name + "-", 1).factory(), looked up reflectively so the code still runs on JDKs
+     * without virtual threads. Virtual threads are always daemon threads.
+     */
+    private static ThreadFactory virtualThreadFactory(String name) throws ReflectiveOperationException {
+        Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+        return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    }
+
+    private static boolean resolveVirtualThreads() {
+        String mode = EnvConfig.getString("EXECUTION_MODE", "platform");
+        if (!"virtual".equalsIgnoreCase(mode)) {
+            return false;
+        }
+        try {
+            virtualThreadFactory("probe");
+            logger.info("Running blocking work on virtual threads");
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("EXECUTION_MODE=virtual needs JDK 21 or later, using platform threads ({})", e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.connectverse;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KDSAudioStreamPublisher implements audio stream publisher.
+ * It emits audio events from a Kinesis data stream asynchronously in a separate thread.
+ *
+ * <p>The publisher lives for the whole transcription and is subscribed again on every retry. It keeps the
+ * {@link AudioStreamResumeState} between those subscriptions and cancels the previous subscription, so a retry
+ * resumes the same audio instead of starting over at the tip of the stream. The new subscription is only created
+ * once the previous one has handed over its unsent audio, without blocking the thread that subscribes.</p>
+ */
+class KDSAudioStreamPublisher implements Publisher<AudioStream> {
+    private static final long RELEASE_WAIT_MILLIS = 500;
+
+    // Creates the subscriptions of retries, which wait for the previous subscription off the SDK thread
+    private static final ExecutorService RESUBSCRIBE_EXECUTOR = ExecutorFactory.newTaskExecutor("audio-resubscribe");
+
+    private final String streamName;
+    private final String partitionKey;
+    private final int sampleRateHertz;
+    private final AudioStreamResumeState resumeState;
+    private final SentAudioClock sentAudioClock;
+    // The latest subscription, once it has been created; null if creating it failed
+    private CompletableFuture<KDSByteToAudioEventSubscription> currentSubscription =
+            CompletableFuture.completedFuture(null);
+
+    KDSAudioStreamPublisher(String streamName, String partitionKey, int sampleRateHertz) {
+        this(streamName, partitionKey, sampleRateHertz, new SentAudioClock(sampleRateHertz));
+    }
+
+    /**
+     * @param sentAudioClock records when the audio of the current Transcribe stream was sent
+     */
+    KDSAudioStreamPublisher(String streamName, String partitionKey, int sampleRateHertz, SentAudioClock sentAudioClock) {
+        this.streamName = streamName;
+        this.partitionKey = partitionKey;
+        this.sampleRateHertz = sampleRateHertz;
+        this.resumeState = new AudioStreamResumeState(sampleRateHertz);
+        this.sentAudioClock = sentAudioClock;
+    }
+
+    @Override
+    public synchronized void subscribe(Subscriber<? super AudioStream> s) {
+        currentSubscription = currentSubscription.exceptionally(e -> null).thenCompose(previous -> {
+            if (previous == null) {
+                return CompletableFuture.completedFuture(startSubscription(s));
+            }
+            previous.cancel();
+            return previous.released()
+                    .completeOnTimeout(null, RELEASE_WAIT_MILLIS, TimeUnit.MILLISECONDS)
+                    .thenApplyAsync(ignored -> startSubscription(s), RESUBSCRIBE_EXECUTOR);
+        });
+    }
+
+    private KDSByteToAudioEventSubscription startSubscription(Subscriber<? super AudioStream> s) {
+        KDSByteToAudioEventSubscription subscription;
+        try {
+            subscription = new KDSByteToAudioEventSubscription(s, streamName, partitionKey, sampleRateHertz, resumeState,
+                    sentAudioClock);
+        } catch (RuntimeException e) {
+            // Rule 1.9: failures are signalled through onError after onSubscribe, never thrown from subscribe
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(e);
+            return null;
+        }
+        s.onSubscribe(subscription);
+        return subscription;
+    }
+}
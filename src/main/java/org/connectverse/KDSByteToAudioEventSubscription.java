@@ -1,29 +1,39 @@
 package org.connectverse;
 
-import org.apache.commons.lang3.Validate;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.kinesis.KinesisClient;
-import software.amazon.awssdk.services.kinesis.model.*;
 import software.amazon.awssdk.services.kinesis.model.Record;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
- * This Subscription converts audio bytes received from the KVS stream into AudioEvents
- * that can be sent to the Transcribe service. It implements a simple demand system that will read chunks of bytes
- * from a KVS stream using the KVS parser library
+ * This Subscription converts audio bytes received from the Kinesis data stream into AudioEvents
+ * that can be sent to the Transcribe service.
+ *
+ * <p>All emission happens in a single drain loop guarded by a work-in-progress counter: request(n), newly buffered
+ * records, reader failures and the frame flush timer only signal the loop, and at most one drain runs at a time on
+ * the subscription's executor. onNext is therefore never called concurrently or re-entrantly, never past the
+ * outstanding demand, and audio leaves in the order it was read. cancel() stops the Kinesis readers and the
+ * executor.</p>
+ *
+ * <p>With AUDIO_VAD_ENABLED=true, frames pass through a {@link VoiceActivityFilter} that holds back silence, and
+ * the seconds of audio received from Kinesis and sent to Transcribe are reported when the subscription ends.</p>
  *
  * <p>Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.</p>
  *
@@ -42,100 +52,274 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class KDSByteToAudioEventSubscription implements Subscription {
 
+    private static final Logger logger = LoggerFactory.getLogger(KDSByteToAudioEventSubscription.class);
+
     private static final int CHUNK_SIZE_IN_BYTES = 1024;
+    private static final int DEFAULT_SAMPLE_RATE_HERTZ = 16000;
+    private static final int DEFAULT_FRAME_MILLIS = 100;
+    private static final long DEFAULT_FRAME_MAX_WAIT_MILLIS = 150;
+
+    // Wakes up drains that hold a partly filled frame; shared because it only ever schedules tiny signal tasks
+    private static final ScheduledExecutorService FLUSH_TIMER =
+            Executors.newSingleThreadScheduledExecutor(ExecutorFactory.daemonThreadFactory("audio-flush-timer"));
+
     private final String streamName;
-    private final ExecutorService executor = Executors.newFixedThreadPool(1); // Change nThreads here!! used in SubmissionPublisher not subscription
+    private final ExecutorService executor = ExecutorFactory.newSingleThreadExecutor("kinesis-audio-drain");
     private final AtomicLong demand = new AtomicLong(0); // state container
+    private final AtomicInteger workInProgress = new AtomicInteger(0);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+    private volatile boolean cancelled = false;
+    // Completes once unsent audio has been handed to the resume state
+    private final CompletableFuture<Void> released = new CompletableFuture<>();
     private final Subscriber<? super AudioStream> subscriber;
 
-    private final KinesisClient kinesisClient;
-    private final GetShardIteratorRequest shardIteratorRequest;
-    private final GetShardIteratorResponse shardIteratorResponse;
-    private String shardIterator;
+    private final KinesisAudioRecordSource recordSource;
+    private final AudioStreamResumeState resumeState;
+    private final SentAudioClock sentAudioClock;
+    private final AudioRecordDecoder decoder;
+    // Null when AUDIO_FRAME_MILLIS=0, in which case decoded chunks go to Transcribe as they are
+    private final AudioFrameAggregator aggregator;
+    // Decoded chunks (or frames) not yet covered by demand; only touched inside the drain loop
+    private final Queue<byte[]> pendingChunks = new ArrayDeque<>();
+    // Null unless AUDIO_VAD_ENABLED=true
+    private final VoiceActivityFilter voiceActivityFilter;
+    // Where finished frames go: through the voice activity filter, if any, into pendingChunks
+    private final Consumer<byte[]> frameSink;
 
     public KDSByteToAudioEventSubscription(Subscriber<? super AudioStream> s, String streamName) {
-        this.subscriber = Validate.notNull(s);
-        this.streamName = streamName;
+        this(s, streamName, null, DEFAULT_SAMPLE_RATE_HERTZ, new AudioStreamResumeState(DEFAULT_SAMPLE_RATE_HERTZ),
+                new SentAudioClock(DEFAULT_SAMPLE_RATE_HERTZ));
+    }
 
-        System.out.println("Stream Name: " + streamName);
+    /**
+     * @param partitionKey    only forward records with this partition key, or null to forward every record
+     * @param sampleRateHertz sample rate of the 16-bit PCM in the stream, as given to Transcribe
+     * @param resumeState     checkpoints and replay audio shared with earlier attempts of the same stream
+     * @param sentAudioClock  restarted for the new Transcribe stream, then told when each chunk is sent
+     */
+    public KDSByteToAudioEventSubscription(Subscriber<? super AudioStream> s, String streamName, String partitionKey,
+                                           int sampleRateHertz, AudioStreamResumeState resumeState,
+                                           SentAudioClock sentAudioClock) {
+        // Reads every shard of the stream (push-based when an enhanced fan-out consumer is configured),
+        // continuing after the last consumed record of a previous attempt
+        this(s, streamName, sampleRateHertz, resumeState, sentAudioClock,
+                new KinesisAudioRecordSource(streamName, partitionKey, resumeState.getCheckpoints()));
+    }
 
-        String shardId = "shardId-000000000000"; // Replace with your shard ID
-        Region region = Region.US_EAST_1; // Replace with your region
+    KDSByteToAudioEventSubscription(Subscriber<? super AudioStream> s, String streamName, int sampleRateHertz,
+                                    AudioStreamResumeState resumeState, SentAudioClock sentAudioClock,
+                                    KinesisAudioRecordSource recordSource) {
+        this.subscriber = Objects.requireNonNull(s);
+        this.streamName = streamName;
+        this.resumeState = resumeState;
+        this.sentAudioClock = sentAudioClock;
+        sentAudioClock.restart();
 
-        // Create a Kinesis client
-        kinesisClient = KinesisClient.builder().region(region).build();
+        // Frame durations, VAD windows and the reported audio seconds all follow the stream's sample rate
+        this.decoder = new AudioRecordDecoder(
+                AudioRecordDecoder.ChunkingPolicy.valueOf(EnvConfig.getString("AUDIO_CHUNKING_POLICY", "PER_RECORD")),
+                EnvConfig.getInt("AUDIO_CHUNK_SIZE_BYTES", CHUNK_SIZE_IN_BYTES),
+                sampleRateHertz);
+        this.aggregator = EnvConfig.getInt("AUDIO_FRAME_MILLIS", DEFAULT_FRAME_MILLIS) > 0
+                ? new AudioFrameAggregator(sampleRateHertz,
+                        EnvConfig.getInt("AUDIO_FRAME_MILLIS", DEFAULT_FRAME_MILLIS),
+                        EnvConfig.getLong("AUDIO_FRAME_MAX_WAIT_MS", DEFAULT_FRAME_MAX_WAIT_MILLIS))
+                : null;
+        this.voiceActivityFilter = EnvConfig.getBoolean("AUDIO_VAD_ENABLED", false)
+                ? VoiceActivityFilter.fromEnvironment(sampleRateHertz)
+                : null;
+        this.frameSink = voiceActivityFilter != null
+                ? frame -> voiceActivityFilter.accept(frame, pendingChunks::add)
+                : pendingChunks::add;
 
-        // Get an initial shard iterator
-        shardIteratorRequest = GetShardIteratorRequest.builder()
-                .streamName(streamName)
-                .shardId(shardId)
-                .shardIteratorType(ShardIteratorType.LATEST)
-                .build();
+        logger.info("Stream Name: {}", streamName);
 
-        shardIteratorResponse = kinesisClient.getShardIterator(shardIteratorRequest);
-        shardIterator = shardIteratorResponse.shardIterator();
+        // Audio the previous attempt may not have transcribed goes out first
+        pendingChunks.addAll(resumeState.takeReplay());
+
+        this.recordSource = recordSource;
+        recordSource.setRecordListener(this::signal);
+        try {
+            recordSource.start();
+        } catch (RuntimeException e) {
+            // Nobody will cancel a subscription that was never handed out
+            recordSource.close();
+            executor.shutdownNow();
+            throw e;
+        }
     }
 
     @Override
     public void request(long n) {
         if (n <= 0) {
-            subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+            // Rule 3.9: non-positive demand is a protocol violation that ends the subscription
+            terminate(new IllegalArgumentException("Demand must be positive"));
+            return;
         }
 
-        demand.getAndAdd(n);
+        // Cap at Long.MAX_VALUE, which means unbounded demand
+        demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+        signal();
+    }
 
-//        System.out.println("Number of records demanded: " + n);
+    @Override
+    public void cancel() {
+        if (terminated.compareAndSet(false, true)) {
+            cancelled = true;
+            release();
+        }
+    }
 
-        //We need to invoke this in a separate thread because the call to subscriber.onNext(...) is recursive
-        executor.submit(() -> {
+    /**
+     * Make sure a drain runs after this call. Only the caller that moves the counter off zero starts one; everyone
+     * else just records that there is more to do and the running drain loops again.
+     */
+    private void signal() {
+        if (workInProgress.getAndIncrement() == 0) {
             try {
-                while (demand.get() > 0) {
-                    GetRecordsRequest recordsRequest = GetRecordsRequest.builder()
-                            .shardIterator(shardIterator)
-                            .limit((int) n)
-                            .build();
-
-                    GetRecordsResponse recordsResponse = kinesisClient.getRecords(recordsRequest);
+                executor.execute(this::drain);
+            } catch (Exception e) {
+                // Executor already shut down: the subscription was cancelled or terminated
+            }
+        }
+    }
 
-                    List<Record> records = recordsResponse.records();
-//                    System.out.println("Number of records received: " + records.size());
+    private void drain() {
+        int missed = 1;
+        try {
+            do {
+                long requested = demand.get();
+                long emitted = 0;
 
-                    for (Record record : records) {
-                        ByteBuffer encodedBytes = record.data().asByteBuffer();
-                        ByteBuffer decodedBytes = Base64.getDecoder().decode(record.data().asByteBuffer());
+                while (emitted != requested) {
+                    if (cancelled) {
+                        return;
+                    }
+                    Throwable failure = recordSource.getFailure();
+                    if (failure != null) {
+                        terminate(new IllegalStateException("Kinesis reader failed", failure));
+                        return;
+                    }
 
-                        CharBuffer b64Buf = StandardCharsets.UTF_8.decode(encodedBytes);
-//                        System.out.println("Base64 audio: " + b64Buf);
+                    byte[] chunk = nextChunk();
+                    if (chunk == null) {
+                        break;
+                    }
+                    resumeState.recordSent(chunk);
+                    sentAudioClock.recordSent(chunk.length, System.currentTimeMillis());
+                    subscriber.onNext(audioEventFromBytes(chunk));
+                    emitted++;
+                }
 
-                        // Process the byte buffer as needed
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                scheduleFlushIfNeeded();
 
-                        AudioEvent audioEvent = audioEventFromBuffer(decodedBytes);
-                        subscriber.onNext(audioEvent);
-                        demand.decrementAndGet();
-                    }
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        } catch (Exception e) {
+            logger.error("Got an exception while sending for transcription", e);
+            terminate(e);
+        }
+    }
 
-                    shardIterator = recordsResponse.nextShardIterator();
+    /**
+     * @return the next chunk to send, decoding buffered records as needed, or null if nothing is ready yet
+     */
+    private byte[] nextChunk() {
+        while (true) {
+            byte[] chunk = pendingChunks.poll();
+            if (chunk != null) {
+                return chunk;
+            }
 
-//                if (records.size() < n) {
-//                    subscriber.onComplete();
-//                }
+            KinesisAudioRecordSource.ShardRecord shardRecord = recordSource.poll();
+            if (shardRecord == null) {
+                if (aggregator != null) {
+                    aggregator.flushIfStale(frameSink);
                 }
-            } catch (Exception e) {
-                System.out.println("Got an exception while sending for transcription: ");
-                e.printStackTrace();
-                subscriber.onError(e);
+                return pendingChunks.poll();
             }
-        });
+
+            Record record = shardRecord.getRecord();
+            resumeState.checkpoint(shardRecord.getShardId(), record.sequenceNumber());
+            if (aggregator != null) {
+                decoder.decode(record.data(), audio -> aggregator.append(audio, frameSink));
+            } else {
+                decoder.decode(record.data(), frameSink);
+            }
+        }
     }
 
-    @Override
-    public void cancel() {
+    private void scheduleFlushIfNeeded() {
+        if (aggregator == null) {
+            return;
+        }
+        long delay = aggregator.nanosUntilFlush();
+        if (delay != Long.MAX_VALUE && flushScheduled.compareAndSet(false, true)) {
+            FLUSH_TIMER.schedule(() -> {
+                flushScheduled.set(false);
+                signal();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void terminate(Throwable e) {
+        if (terminated.compareAndSet(false, true)) {
+            cancelled = true;
+            release();
+            subscriber.onError(e);
+        }
+    }
+
+    private void release() {
+        recordSource.close();
+        try {
+            // Queued behind any running drain so it is the last thing to touch the drain state. Audio that was
+            // consumed from Kinesis but never sent is kept for the replay of the next attempt.
+            executor.execute(() -> {
+                if (aggregator != null) {
+                    aggregator.flush(pendingChunks::add);
+                }
+                pendingChunks.forEach(resumeState::recordUnsent);
+                pendingChunks.clear();
+                released.complete(null);
+            });
+        } catch (Exception e) {
+            // Already released
+            released.complete(null);
+        }
         executor.shutdown();
+        logger.info("Decoded {} records, {} s of audio, {} bytes allocated per audio second",
+                decoder.getRecordsDecoded(), tenths(decoder.getAudioSeconds()),
+                Math.round(decoder.getBytesAllocatedPerAudioSecond()));
+        if (voiceActivityFilter != null) {
+            // Read off the drain thread; the counts may miss the last few frames, which is fine for reporting
+            double received = voiceActivityFilter.getSecondsReceived();
+            double sent = voiceActivityFilter.getSecondsSent();
+            logger.info("Voice activity filter sent {} s of {} s of audio", tenths(sent), tenths(received));
+            MetricsUtil.recordMetric("AudioSecondsReceived", received, MetricsUtil.UNIT_SECONDS);
+            MetricsUtil.recordMetric("AudioSecondsSent", sent, MetricsUtil.UNIT_SECONDS);
+        }
+    }
+
+    /**
+     * @return completes once a cancelled subscription has handed its unsent audio to the resume state
+     */
+    CompletableFuture<Void> released() {
+        return released;
+    }
+
+    private static double tenths(double value) {
+        return Math.round(value * 10) / 10.0;
     }
 
-    private AudioEvent audioEventFromBuffer(ByteBuffer sdkBytes) {
+    static AudioEvent audioEventFromBytes(byte[] audio) {
+        // The decoder hands over a freshly decoded array, so it can back the event without another copy
         return AudioEvent.builder()
-                .audioChunk(SdkBytes.fromByteBuffer(sdkBytes))
+                .audioChunk(SdkBytes.fromByteArrayUnsafe(audio))
                 .build();
     }
 }
@@ -1,23 +1,18 @@
 package org.connectverse;
 
-import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 
-import org.reactivestreams.Publisher;
-import org.reactivestreams.Subscriber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
 import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.PartialResultsStability;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 
-import java.util.Map;
+import java.lang.management.ManagementFactory;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -44,17 +39,26 @@ import java.util.concurrent.TimeoutException;
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 public class KDSTranslateLambda implements RequestHandler<TranscriptionRequest, String> {
-    private static final Regions TRANSCRIBE_REGION = Regions.fromName("us-east-1");
-    private static final String TRANSCRIBE_ENDPOINT = "https://transcribestreaming." + TRANSCRIBE_REGION.getName() + ".amazonaws.com";
+    private static final int SAMPLE_RATE_HERTZ = 16000;
 
     private static final Logger logger = LoggerFactory.getLogger(KDSTranslateLambda.class);
 
-    private static final Map<String, LanguageDetails> LANGUAGES = Map.of(
-            "English", new LanguageDetails("en-US","en", "en-US","Kendra"),
-            "Hindi", new LanguageDetails("hi-IN","hi", "hi-IN","Aditi"),
-            "French", new LanguageDetails("fr-FR","fr", "","Mathieu"),
-            "Spanish", new LanguageDetails("es-ES","es", "es-ES","Lucia")
-    );
+    // Shared by every invocation in the container, so the second leg of a call finds its languages cached
+    private static final LanguageSettingsService LANGUAGE_SETTINGS = LanguageSettingsService.fromEnvironment();
+
+    static {
+        long initStart = System.nanoTime();
+
+        // Runs once per container, during the cold start, so warm invocations find common phrases cached
+        int prewarmed = TranslateText.prewarmCache();
+        if (prewarmed > 0) {
+            logger.info("Pre-warmed translation cache with {} phrases", prewarmed);
+        }
+        ColdStartPriming.register();
+
+        logger.info("Handler initialized in {} ms, {} ms after JVM start",
+                (System.nanoTime() - initStart) / 1_000_000, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
 
     /**
      * Handler function for the Lambda
@@ -65,35 +69,36 @@ public class KDSTranslateLambda implements RequestHandler<TranscriptionRequest,
      */
     @Override
     public String handleRequest(TranscriptionRequest request, Context context) {
+        try (LogContext.Scope ignored = LogContext.forContact(request.getConnectContactId())) {
+            return handleSession(request);
+        }
+    }
 
-        logger.info("received request : " + request.toString());
+    private String handleSession(TranscriptionRequest request) {
 
-        enrichTranscriptionRequestion(request);
+        logger.info("received request : {}", request);
 
-        String streamARN = request.getStreamARN();
-        String streamName = streamARN.substring(streamARN.indexOf("/") + 1, streamARN.lastIndexOf("/"));
+        enrichTranscriptionRequestion(request);
 
         try {
-            // validate the request
-            request.validate();
-
-            try (TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(getTranscribeCredentials(),
-                    TRANSCRIBE_ENDPOINT, TRANSCRIBE_REGION)) {
+            // The Transcribe client comes from AwsClients and is kept open for the next warm invocation
+            try (TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(AwsClients.transcribeStreaming(), false)) {
 
                 logger.info("Calling Transcribe service..");
-                CompletableFuture<Void> result = null;
-
-                result = getStartStreamingTranscriptionFuture(client, streamName, request);
+                CompletableFuture<Void> result = startSession(client, request);
 
                 // Synchronous wait for stream to close, and close client connection
                 // Timeout of 890 seconds because the Lambda function can be run for at most 15 mins (~890 secs)
                 if (null != result) {
-                    result.get(890, TimeUnit.SECONDS);
+                    try {
+                        result.get(890, TimeUnit.SECONDS);
+                    } catch (TimeoutException e) {
+                        logger.debug("Timing out KVS to Transcribe Streaming after 890 sec");
+                        // Writes the latency metrics of the utterances delivered so far
+                        result.cancel(true);
+                    }
                 }
 
-            } catch (TimeoutException e) {
-                logger.debug("Timing out KVS to Transcribe Streaming after 890 sec");
-
             } catch (Exception e) {
                 logger.error("Error during streaming: ", e);
                 throw e;
@@ -107,12 +112,43 @@ public class KDSTranslateLambda implements RequestHandler<TranscriptionRequest,
         }
     }
 
-    private void enrichTranscriptionRequestion(TranscriptionRequest request) {
-        DynamoDBHelper helper = new DynamoDBHelper();
+    /**
+     * Validate an enriched request and start translating its audio stream. Shared by the Lambda handler, which
+     * waits on the returned future, and {@link TranslationWorker}, which runs many sessions side by side.
+     *
+     * @return future that completes when the Transcribe stream ends
+     */
+    static CompletableFuture<Void> startSession(TranscribeStreamingRetryClient client, TranscriptionRequest request) {
+        return startSession(client, request, null);
+    }
+
+    /**
+     * @param callSession the session shared with the call's other leg, or null for a standalone leg
+     */
+    static CompletableFuture<Void> startSession(TranscribeStreamingRetryClient client, TranscriptionRequest request,
+                                                CallSession callSession) {
+        request.validate();
+
+        String streamARN = request.getStreamARN();
+        String streamName = streamARN.substring(streamARN.indexOf("/") + 1, streamARN.lastIndexOf("/"));
+
+        return getStartStreamingTranscriptionFuture(client, streamName, request, callSession);
+    }
+
+    static void enrichTranscriptionRequestion(TranscriptionRequest request) {
+        applyLanguageSettings(request, getCallLanguages(request.getConnectContactId()));
+    }
+
+    static LanguageSettingsService.CallLanguages getCallLanguages(String contactId) {
+        return LANGUAGE_SETTINGS.getLanguages(contactId);
+    }
 
-        Map<String, AttributeValue> values = helper.queryByPrimaryKey("ICS_Showcase_language", "callId", "1");
-        LanguageDetails customerLang = LANGUAGES.get(values.get("customer_language").s());
-        LanguageDetails agentLang = LANGUAGES.get(values.get("agent_language").s());
+    /**
+     * Fill in the language codes and voice of the request from the languages of its call.
+     */
+    static void applyLanguageSettings(TranscriptionRequest request, LanguageSettingsService.CallLanguages languages) {
+        LanguageDetails customerLang = languages.customer;
+        LanguageDetails agentLang = languages.agent;
 
         request.setTranscribeLanguageCode(request.communicator == Communicator.CUSTOMER ? customerLang.transcribeLanguageCode : agentLang.transcribeLanguageCode);
         request.setTranslateFromLanguageCode(request.communicator == Communicator.CUSTOMER ? customerLang.translateLanguageCode : agentLang.translateLanguageCode);
@@ -122,22 +158,38 @@ public class KDSTranslateLambda implements RequestHandler<TranscriptionRequest,
     }
 
 
-    private CompletableFuture<Void> getStartStreamingTranscriptionFuture(TranscribeStreamingRetryClient client, String streamName, TranscriptionRequest request) {
-        return client.startStreamTranscription(
+    private static CompletableFuture<Void> getStartStreamingTranscriptionFuture(TranscribeStreamingRetryClient client, String streamName,
+                                                                                TranscriptionRequest request, CallSession callSession) {
+        // Shared so result offsets can be turned into the time their audio was sent
+        SentAudioClock sentAudioClock = new SentAudioClock(SAMPLE_RATE_HERTZ);
+        StreamTranscriptionBehaviorImpl behavior = new StreamTranscriptionBehaviorImpl(request, callSession,
+                sentAudioClock);
+        CompletableFuture<Void> stream = client.startStreamTranscription(
                 // since we're definitely working with telephony audio, we know that's 8 kHz
-                getRequest(16000, request.transcribeLanguageCode),
-                new KDSAudioStreamPublisher(streamName),
-                new StreamTranscriptionBehaviorImpl(request)
+                getRequest(SAMPLE_RATE_HERTZ, request.transcribeLanguageCode),
+                new KDSAudioStreamPublisher(streamName, getPartitionKey(request), SAMPLE_RATE_HERTZ, sentAudioClock),
+                behavior
         );
+        // The stream's end only starts closing the pipeline; the session is over once its last utterances are out
+        CompletableFuture<Void> session = stream.handle((r, e) -> e)
+                .thenCompose(e -> behavior.delivered().thenCompose(v -> e == null
+                        ? CompletableFuture.<Void>completedFuture(null)
+                        : CompletableFuture.<Void>failedFuture(e)));
+        // A caller that gives up on the session, as the Lambda does before its time limit, still gets the metrics
+        session.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                behavior.flushMetrics();
+            }
+        });
+        return session;
     }
 
     /**
-     * @return AWS credentials to be used to connect to Transcribe service. This example uses the default credentials
-     * provider, which looks for environment variables (AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY) or a credentials
-     * file on the system running this program.
+     * When several calls share one Kinesis stream (KINESIS_FILTER_BY_CONTACT_ID=true), the producer uses the contact
+     * ID as partition key and each stream reader only keeps the records of its own call.
      */
-    private static AwsCredentialsProvider getTranscribeCredentials() {
-        return DefaultCredentialsProvider.create();
+    private static String getPartitionKey(TranscriptionRequest request) {
+        return EnvConfig.getBoolean("KINESIS_FILTER_BY_CONTACT_ID", false) ? request.getConnectContactId() : null;
     }
 
     /**
@@ -148,33 +200,22 @@ public class KDSTranslateLambda implements RequestHandler<TranscriptionRequest,
      * @param languageCode the language code to be used for Transcription (optional; see https://docs.aws.amazon.com/transcribe/latest/dg/API_streaming_StartStreamTranscription.html#API_streaming_StartStreamTranscription_RequestParameters )
      * @return StartStreamTranscriptionRequest to be used to open a stream to transcription service
      */
-    private static StartStreamTranscriptionRequest getRequest(Integer mediaSampleRateHertz, Optional <String> languageCode) {
+    static StartStreamTranscriptionRequest getRequest(Integer mediaSampleRateHertz, Optional <String> languageCode) {
 
-        return StartStreamTranscriptionRequest.builder()
+        StartStreamTranscriptionRequest.Builder builder = StartStreamTranscriptionRequest.builder()
                 .languageCode(languageCode.isPresent() ? languageCode.get() : LanguageCode.EN_US.toString())
                 .numberOfChannels(1)
                 .mediaEncoding(MediaEncoding.PCM)
-                .mediaSampleRateHertz(mediaSampleRateHertz)
-                .build();
-    }
-
-    /**
-     * KVSAudioStreamPublisher implements audio stream publisher.
-     * It emits audio events from a KVS stream asynchronously in a separate thread
-     */
-    private static class KDSAudioStreamPublisher implements Publisher<AudioStream> {
-        private String streamName;
+                .mediaSampleRateHertz(mediaSampleRateHertz);
 
-        private KDSAudioStreamPublisher(String streamName) {
-            this.streamName = streamName;
-        }
-
-        @Override
-        public void subscribe(Subscriber<? super AudioStream> s) {
-            s.onSubscribe(new KDSByteToAudioEventSubscription(s, streamName));
+        if (StreamTranscriptionBehaviorImpl.isEarlyTranslationEnabled()) {
+            // Let Transcribe mark items that will no longer change, so early translation can act on them
+            builder.enablePartialResultsStabilization(true)
+                    .partialResultsStability(PartialResultsStability.fromValue(
+                            EnvConfig.getString("PARTIAL_RESULTS_STABILITY", "medium")));
         }
+        return builder.build();
     }
-
 }
 
 enum Communicator {
@@ -0,0 +1,244 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.ChildShard;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.ShardFilter;
+import software.amazon.awssdk.services.kinesis.model.ShardFilterType;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads audio records from every shard of a Kinesis data stream into a bounded queue.
+ *
+ * <p>All open shards are discovered with ListShards when the source starts. When a shard is closed by resharding,
+ * its child shards are picked up from the last GetRecords response or SubscribeToShard event and read from
+ * TRIM_HORIZON once all of their parents are finished, so audio from one partition key stays in order.</p>
+ *
+ * <p>The shards themselves are read by {@link KinesisShardReader}s, which sources of the same stream share, so
+ * several calls on one stream do not multiply the reads per shard. If KINESIS_CONSUMER_ARN names a registered
+ * enhanced fan-out consumer, shards are read with SubscribeToShard and records are pushed as soon as they are
+ * written. Otherwise, or if the subscription is rejected, shards are polled with GetRecords at an interval that
+ * drops to KINESIS_POLL_MIN_INTERVAL_MS while records keep coming and doubles up to KINESIS_POLL_MAX_INTERVAL_MS
+ * while the shard is idle.</p>
+ *
+ * <p>When a partition key is given, records with any other key are skipped, which lets several calls share one
+ * stream. Shards with a known starting sequence number (from a previous attempt of the same stream) are resumed
+ * right after it instead of at LATEST.</p>
+ *
+ * <p>Readers never wait for a source, so a source whose consumer falls KINESIS_RECORD_BUFFER records behind fails
+ * instead of holding up the other calls on the stream; the retry resumes after the last consumed record.</p>
+ */
+public class KinesisAudioRecordSource implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(KinesisAudioRecordSource.class);
+
+    private static final int DEFAULT_BUFFER_RECORDS = 500;
+    // A shard serves at most 5 GetRecords calls per second
+    private static final long DEFAULT_MIN_POLL_INTERVAL_MILLIS = 200;
+    private static final long DEFAULT_MAX_POLL_INTERVAL_MILLIS = 1000;
+
+    private final String streamName;
+    private final String partitionKey;
+    private final KinesisClient kinesisClient;
+    private final KinesisAsyncClient kinesisAsyncClient;
+    private final String consumerArn;
+    private final long minPollIntervalMillis;
+    private final long maxPollIntervalMillis;
+
+    private final BlockingQueue<ShardRecord> records;
+    private final Map<String, String> startingSequenceNumbers = new HashMap<>();
+    private final Set<String> finishedShards = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final KinesisShardReader.Listener listener = new ReaderListener();
+    // Shard ID to the reader this source is attached to; guarded by this
+    private final Map<String, KinesisShardReader> readers = new HashMap<>();
+    private volatile boolean closed = false;
+    private volatile Runnable recordListener = () -> { };
+
+    public KinesisAudioRecordSource(String streamName, String partitionKey) {
+        this(streamName, partitionKey, Collections.emptyMap());
+    }
+
+    /**
+     * @param startingSequenceNumbers shard ID to the last sequence number already consumed; those shards are
+     *                                resumed after it
+     */
+    public KinesisAudioRecordSource(String streamName, String partitionKey, Map<String, String> startingSequenceNumbers) {
+        this(streamName, partitionKey, startingSequenceNumbers, AwsClients.kinesis(),
+                EnvConfig.getString("KINESIS_CONSUMER_ARN", null) == null ? null : AwsClients.kinesisAsync(),
+                EnvConfig.getString("KINESIS_CONSUMER_ARN", null));
+    }
+
+    public KinesisAudioRecordSource(String streamName, String partitionKey, Map<String, String> startingSequenceNumbers,
+                                    KinesisClient kinesisClient, KinesisAsyncClient kinesisAsyncClient, String consumerArn) {
+        this.streamName = streamName;
+        this.partitionKey = partitionKey;
+        this.kinesisClient = kinesisClient;
+        this.kinesisAsyncClient = kinesisAsyncClient;
+        this.consumerArn = consumerArn;
+        this.minPollIntervalMillis = EnvConfig.getLong("KINESIS_POLL_MIN_INTERVAL_MS", DEFAULT_MIN_POLL_INTERVAL_MILLIS);
+        this.maxPollIntervalMillis = EnvConfig.getLong("KINESIS_POLL_MAX_INTERVAL_MS", DEFAULT_MAX_POLL_INTERVAL_MILLIS);
+        this.records = new LinkedBlockingQueue<>(EnvConfig.getInt("KINESIS_RECORD_BUFFER", DEFAULT_BUFFER_RECORDS));
+        this.startingSequenceNumbers.putAll(startingSequenceNumbers);
+    }
+
+    /**
+     * Discover the open shards of the stream and start reading each of them at LATEST, or after its starting
+     * sequence number when one was given.
+     */
+    public void start() {
+        List<Shard> shards = listOpenShards();
+        logger.info("Reading {} shard(s) of stream {} {}", shards.size(), streamName,
+                consumerArn != null ? "with enhanced fan-out" : "by polling");
+        for (Shard shard : shards) {
+            startShard(shard.shardId(), ShardIteratorType.LATEST);
+        }
+    }
+
+    /**
+     * Register a callback that is run after every record added to the queue and when the source fails. It runs on
+     * reader threads and must not block.
+     */
+    public void setRecordListener(Runnable recordListener) {
+        this.recordListener = recordListener;
+    }
+
+    /**
+     * Take the next record without waiting.
+     *
+     * @return the next record in shard order, or null if none is buffered
+     */
+    public ShardRecord poll() {
+        return records.poll();
+    }
+
+    /**
+     * @return the error that stopped the source, or null while it is healthy
+     */
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    @Override
+    public void close() {
+        List<KinesisShardReader> attached;
+        synchronized (this) {
+            closed = true;
+            attached = new ArrayList<>(readers.values());
+            readers.clear();
+        }
+        for (KinesisShardReader reader : attached) {
+            reader.detach(listener);
+        }
+        records.clear();
+    }
+
+    private List<Shard> listOpenShards() {
+        List<Shard> shards = new ArrayList<>();
+        ListShardsResponse response = kinesisClient.listShards(ListShardsRequest.builder()
+                .streamName(streamName)
+                .shardFilter(ShardFilter.builder().type(ShardFilterType.AT_LATEST).build())
+                .build());
+        shards.addAll(response.shards());
+        while (response.nextToken() != null) {
+            // Follow-up pages are identified by the token alone
+            response = kinesisClient.listShards(ListShardsRequest.builder().nextToken(response.nextToken()).build());
+            shards.addAll(response.shards());
+        }
+        return shards;
+    }
+
+    private synchronized void startShard(String shardId, ShardIteratorType initialPosition) {
+        if (closed || readers.containsKey(shardId)) {
+            return;
+        }
+        KinesisShardReader reader = new KinesisShardReader(streamName, shardId, initialPosition,
+                startingSequenceNumbers.get(shardId), kinesisClient, kinesisAsyncClient, consumerArn,
+                minPollIntervalMillis, maxPollIntervalMillis);
+        readers.put(shardId, KinesisShardReader.attach(reader, listener));
+    }
+
+    private void fail(Throwable e) {
+        if (!closed && failure.compareAndSet(null, e)) {
+            logger.error("Kinesis reader for stream {} failed", streamName, e);
+            recordListener.run();
+        }
+    }
+
+    /**
+     * Filters and queues the records of the shards this source reads; never blocks the reader.
+     */
+    private class ReaderListener implements KinesisShardReader.Listener {
+
+        @Override
+        public void onRecords(String shardId, List<Record> batch) {
+            if (closed || failure.get() != null) {
+                return;
+            }
+            for (Record record : batch) {
+                if (partitionKey == null || partitionKey.equals(record.partitionKey())) {
+                    if (!records.offer(new ShardRecord(shardId, record))) {
+                        fail(new IllegalStateException("Audio consumer fell behind by more than "
+                                + records.size() + " records on stream " + streamName));
+                        return;
+                    }
+                    recordListener.run();
+                }
+            }
+        }
+
+        @Override
+        public void onShardEnded(String shardId, List<ChildShard> childShards) {
+            finishedShards.add(shardId);
+            for (ChildShard child : childShards) {
+                // A merged child has two parents and may only be read once both are drained
+                if (finishedShards.containsAll(child.parentShards())) {
+                    startShard(child.shardId(), ShardIteratorType.TRIM_HORIZON);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * A record together with the shard it was read from, so consumers can checkpoint per shard.
+     */
+    public static class ShardRecord {
+        private final String shardId;
+        private final Record record;
+
+        ShardRecord(String shardId, Record record) {
+            this.shardId = shardId;
+            this.record = record;
+        }
+
+        public String getShardId() {
+            return shardId;
+        }
+
+        public Record getRecord() {
+            return record;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package org.connectverse;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.ChildShard;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.ResourceInUseException;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+import software.amazon.awssdk.services.kinesis.model.StartingPosition;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEvent;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEventStream;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardRequest;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponseHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads one shard of a Kinesis data stream and hands every batch of records to the {@link Listener}s attached to
+ * it.
+ *
+ * <p>Readers are shared within the process: every source that reads a shard from LATEST attaches to the same
+ * reader, so the shard is polled, or subscribed to, once however many calls share the stream. That keeps a busy
+ * stream under the limit of five GetRecords calls per shard and second, and under the single SubscribeToShard
+ * subscription allowed per consumer and shard. A source that must start at a particular record, such as a retry
+ * resuming after its last consumed record or a child shard that a shared reader has already read from, gets a
+ * reader of its own.</p>
+ *
+ * <p>No thread waits between reads: polls, backoffs and resubscriptions are scheduled on a small timer pool
+ * (KINESIS_POLL_THREADS, default 2), and enhanced fan-out events are handed on directly on the SDK thread.
+ * Listeners must therefore never block.</p>
+ */
+final class KinesisShardReader {
+
+    /**
+     * Receives the records of a shard. All methods are called on reader threads and must not block.
+     */
+    interface Listener {
+        void onRecords(String shardId, List<Record> records);
+
+        /**
+         * The shard was closed by resharding and every record of it has been delivered.
+         */
+        void onShardEnded(String shardId, List<ChildShard> childShards);
+
+        void onError(Throwable e);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(KinesisShardReader.class);
+
+    private static final int POLL_LIMIT = 100;
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 200;
+
+    // Polls block on GetRecords for a few milliseconds; everything else scheduled here only signals
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(
+            Math.max(1, EnvConfig.getInt("KINESIS_POLL_THREADS", 2)), ExecutorFactory.daemonThreadFactory("kinesis-poll"));
+
+    // Readers that sources may join, by stream and shard; guarded by itself
+    private static final Map<String, KinesisShardReader> SHARED = new HashMap<>();
+
+    private final String streamName;
+    private final String shardId;
+    private final ShardIteratorType initialPosition;
+    private final KinesisClient kinesisClient;
+    private final KinesisAsyncClient kinesisAsyncClient;
+    private final String consumerArn;
+    private final long minPollIntervalMillis;
+    private final long maxPollIntervalMillis;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Last record read, where a fallback or resubscription continues; starts at the resume point, if any
+    private volatile String lastSequenceNumber;
+    // Set once a batch has been handed out, after which a TRIM_HORIZON source can no longer join; guarded by this
+    private boolean delivered = false;
+    private volatile boolean stopped = false;
+    private volatile Subscription subscription;
+
+    /**
+     * @param afterSequenceNumber last record already consumed, or null to start at the initial position; a reader
+     *                            that starts after a given record is never shared
+     */
+    KinesisShardReader(String streamName, String shardId, ShardIteratorType initialPosition, String afterSequenceNumber,
+                       KinesisClient kinesisClient, KinesisAsyncClient kinesisAsyncClient, String consumerArn,
+                       long minPollIntervalMillis, long maxPollIntervalMillis) {
+        this.streamName = streamName;
+        this.shardId = shardId;
+        this.initialPosition = initialPosition;
+        this.lastSequenceNumber = afterSequenceNumber;
+        this.kinesisClient = kinesisClient;
+        this.kinesisAsyncClient = kinesisAsyncClient;
+        this.consumerArn = consumerArn;
+        this.minPollIntervalMillis = minPollIntervalMillis;
+        this.maxPollIntervalMillis = maxPollIntervalMillis;
+    }
+
+    /**
+     * Attach a listener to the shard of the given reader: to an already running shared reader if the listener may
+     * join it, otherwise to the given reader, which is then started.
+     *
+     * @param reader a reader that has not been started
+     * @return the reader the listener is attached to, to {@link #detach} from later
+     */
+    static KinesisShardReader attach(KinesisShardReader reader, Listener listener) {
+        if (reader.lastSequenceNumber == null) {
+            String key = reader.streamName + "/" + reader.shardId;
+            synchronized (SHARED) {
+                KinesisShardReader running = SHARED.get(key);
+                if (running != null && running.join(listener, reader.initialPosition)) {
+                    return running;
+                }
+                if (running == null || running.stopped) {
+                    SHARED.put(key, reader);
+                }
+                reader.listeners.add(listener);
+            }
+        } else {
+            reader.listeners.add(listener);
+        }
+        reader.start();
+        return reader;
+    }
+
+    private synchronized boolean join(Listener listener, ShardIteratorType position) {
+        // A LATEST reader may join at any time, a TRIM_HORIZON one only before any record went out
+        if (stopped || initialPosition != position || (position != ShardIteratorType.LATEST && delivered)) {
+            return false;
+        }
+        listeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Stop delivering to the listener. The reader stops once no listener is left.
+     */
+    void detach(Listener listener) {
+        boolean stopNow;
+        synchronized (SHARED) {
+            synchronized (this) {
+                listeners.remove(listener);
+                stopNow = listeners.isEmpty() && !stopped;
+                if (stopNow) {
+                    stopped = true;
+                }
+            }
+            if (stopNow) {
+                SHARED.remove(streamName + "/" + shardId, this);
+            }
+        }
+        if (stopNow) {
+            Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    private void stop() {
+        synchronized (SHARED) {
+            stopped = true;
+            SHARED.remove(streamName + "/" + shardId, this);
+        }
+    }
+
+    private void start() {
+        if (consumerArn != null && kinesisAsyncClient != null) {
+            subscribeToShard(startingPosition());
+        } else {
+            schedulePoll(null, 0, minPollIntervalMillis);
+        }
+    }
+
+    private void deliver(List<Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        lastSequenceNumber = records.get(records.size() - 1).sequenceNumber();
+        List<Listener> current;
+        synchronized (this) {
+            delivered = true;
+            current = new ArrayList<>(listeners);
+        }
+        for (Listener listener : current) {
+            listener.onRecords(shardId, records);
+        }
+    }
+
+    private void end(List<ChildShard> childShards) {
+        stop();
+        logger.info("Shard {} closed, {} child shard(s)", shardId, childShards.size());
+        for (Listener listener : listeners) {
+            listener.onShardEnded(shardId, childShards);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (stopped) {
+            return;
+        }
+        stop();
+        for (Listener listener : listeners) {
+            listener.onError(e);
+        }
+    }
+
+    // ---- GetRecords polling ----
+
+    /**
+     * @param shardIterator where to continue, or null to get an iterator first
+     * @param interval      the current polling interval, which the next one is derived from
+     */
+    private void schedulePoll(String shardIterator, long delayMillis, long interval) {
+        try {
+            TIMER.schedule(() -> poll(shardIterator, interval), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Only while the JVM shuts down
+        }
+    }
+
+    private void poll(String shardIterator, long interval) {
+        if (stopped) {
+            return;
+        }
+        try {
+            String iterator = shardIterator != null ? shardIterator : getShardIterator();
+            GetRecordsResponse response;
+            try {
+                response = kinesisClient.getRecords(GetRecordsRequest.builder()
+                        .shardIterator(iterator)
+                        .limit(POLL_LIMIT)
+                        .build());
+            } catch (ProvisionedThroughputExceededException e) {
+                long backoff = Math.min(maxPollIntervalMillis, interval * 2);
+                schedulePoll(iterator, backoff, backoff);
+                return;
+            }
+
+            deliver(response.records());
+            if (response.nextShardIterator() == null) {
+                end(response.childShards());
+                return;
+            }
+
+            // Poll again as soon as allowed while audio is flowing, and back off while the shard is quiet
+            long next = !response.records().isEmpty()
+                    || (response.millisBehindLatest() != null && response.millisBehindLatest() > 0)
+                    ? minPollIntervalMillis
+                    : Math.min(maxPollIntervalMillis, interval * 2);
+            schedulePoll(response.nextShardIterator(), next, next);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private String getShardIterator() {
+        GetShardIteratorRequest.Builder request = GetShardIteratorRequest.builder()
+                .streamName(streamName)
+                .shardId(shardId);
+        String after = lastSequenceNumber;
+        if (after != null) {
+            request.shardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER).startingSequenceNumber(after);
+        } else {
+            request.shardIteratorType(initialPosition);
+        }
+        return kinesisClient.getShardIterator(request.build()).shardIterator();
+    }
+
+    // ---- SubscribeToShard (enhanced fan-out) ----
+
+    private StartingPosition startingPosition() {
+        String after = lastSequenceNumber;
+        if (after != null) {
+            return StartingPosition.builder()
+                    .type(ShardIteratorType.AFTER_SEQUENCE_NUMBER)
+                    .sequenceNumber(after)
+                    .build();
+        }
+        return StartingPosition.builder().type(initialPosition).build();
+    }
+
+    private void subscribeToShard(StartingPosition startingPosition) {
+        if (stopped) {
+            return;
+        }
+        ShardEventSubscriber subscriber = new ShardEventSubscriber();
+        SubscribeToShardRequest request = SubscribeToShardRequest.builder()
+                .consumerARN(consumerArn)
+                .shardId(shardId)
+                .startingPosition(startingPosition)
+                .build();
+        SubscribeToShardResponseHandler handler = SubscribeToShardResponseHandler.builder()
+                .subscriber(() -> subscriber)
+                .onError(e -> logger.debug("SubscribeToShard for {} ended with: {}", shardId, e.toString()))
+                .build();
+
+        kinesisAsyncClient.subscribeToShard(request, handler).whenComplete((r, e) -> {
+            if (stopped) {
+                return;
+            }
+            Throwable cause = (e != null && e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof ResourceNotFoundException || cause instanceof ResourceInUseException) {
+                // The consumer is missing or not active yet; keep the audio flowing by polling instead
+                logger.warn("Enhanced fan-out unavailable for shard {}, falling back to polling: {}", shardId, cause.getMessage());
+                schedulePoll(null, 0, minPollIntervalMillis);
+                return;
+            }
+            // Subscriptions expire after five minutes (or drop on errors); continue after the last record read
+            try {
+                TIMER.schedule(() -> subscribeToShard(startingPosition()),
+                        e != null ? RESUBSCRIBE_DELAY_MILLIS : 0, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException rejected) {
+                // Only while the JVM shuts down
+            }
+        });
+    }
+
+    /**
+     * Requests one event at a time and hands its records on directly; listeners only enqueue, so the Netty event
+     * loop is never held up.
+     */
+    private class ShardEventSubscriber implements Subscriber<SubscribeToShardEventStream> {
+        private Subscription eventSubscription;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            eventSubscription = s;
+            subscription = s;
+            if (stopped) {
+                s.cancel();
+                return;
+            }
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(SubscribeToShardEventStream eventStream) {
+            if (eventStream instanceof SubscribeToShardEvent) {
+                SubscribeToShardEvent event = (SubscribeToShardEvent) eventStream;
+                deliver(event.records());
+                if (event.continuationSequenceNumber() == null) {
+                    eventSubscription.cancel();
+                    end(event.childShards());
+                    return;
+                }
+                lastSequenceNumber = event.continuationSequenceNumber();
+            }
+            if (stopped) {
+                eventSubscription.cancel();
+                return;
+            }
+            eventSubscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // Handled where the subscribeToShard future completes
+        }
+
+        @Override
+        public void onComplete() {
+            // Handled where the subscribeToShard future completes
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.connectverse;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisClient;
@@ -10,6 +12,8 @@ import java.nio.ByteBuffer;
 import java.util.List;
 
 public class KinesisStreamConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(KinesisStreamConsumer.class);
     public static void main(String[] args) {
         String streamName = "YourStreamName"; // Replace with your stream name
         String shardId = "shardId-000000000000"; // Replace with your shard ID
@@ -44,7 +48,7 @@ public class KinesisStreamConsumer {
             for (Record record : records) {
                 SdkBytes byteBuffer = record.data();
                 // Process the byte buffer as needed
-                System.out.println("Received record with data: " + byteBuffer.toString());
+                logger.info("Received record with data: {}", byteBuffer);
             }
 
             // Update the shard iterator
@@ -57,7 +61,7 @@ public class KinesisStreamConsumer {
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                logger.error("Interrupted while reading shard", e);
             }
         }
 
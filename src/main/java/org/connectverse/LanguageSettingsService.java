@@ -0,0 +1,216 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+/**
+ * Finds the customer and agent languages of a call.
+ *
+ * <p>The settings row is read from the LANGUAGE_TABLE table (default ICS_Showcase_language) with a GetItem by the
+ * call's contact ID that fetches only the two language attributes. Calls without a row of their own use the row
+ * whose key is LANGUAGE_DEFAULT_CALL_ID (default 1).</p>
+ *
+ * <p>Results are cached per contact ID for LANGUAGE_CACHE_TTL_SECONDS, so the second leg of a call and warm
+ * invocations need no read. A missing row is remembered for LANGUAGE_NEGATIVE_TTL_SECONDS so calls without settings
+ * do not read the table every time. Concurrent lookups of the same contact ID share one read. Failed reads are not
+ * cached.</p>
+ *
+ * <p>The language names in the table are mapped to service codes and voices through a tab separated table:
+ * {@code name<TAB>transcribe code<TAB>translate code<TAB>polly code<TAB>polly voice}, read from
+ * LANGUAGE_CONFIG_FILE or from the languages.tsv classpath resource.</p>
+ */
+final class LanguageSettingsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LanguageSettingsService.class);
+
+    static final String CUSTOMER_LANGUAGE = "customer_language";
+    static final String AGENT_LANGUAGE = "agent_language";
+
+    private static final String LANGUAGES_RESOURCE = "languages.tsv";
+    private static final long DEFAULT_TTL_MILLIS = 60_000;
+    private static final long DEFAULT_NEGATIVE_TTL_MILLIS = 10_000;
+    private static final int MAX_ENTRIES = 10_000;
+
+    /**
+     * Languages of the two parties of a call.
+     */
+    static final class CallLanguages {
+        final LanguageDetails customer;
+        final LanguageDetails agent;
+
+        CallLanguages(LanguageDetails customer, LanguageDetails agent) {
+            this.customer = customer;
+            this.agent = agent;
+        }
+    }
+
+    private static final class Entry {
+        // Completes with null when the contact has no settings row
+        final CompletableFuture<CallLanguages> languages = new CompletableFuture<>();
+        volatile long expiresAt = Long.MAX_VALUE;
+    }
+
+    private final DynamoDBHelper helper;
+    private final String tableName;
+    private final String keyAttribute;
+    private final String defaultCallId;
+    private final Map<String, LanguageDetails> languages;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    LanguageSettingsService(DynamoDBHelper helper, String tableName, String keyAttribute, String defaultCallId,
+                            Map<String, LanguageDetails> languages, long ttlMillis, long negativeTtlMillis,
+                            LongSupplier clock) {
+        this.helper = helper;
+        this.tableName = tableName;
+        this.keyAttribute = keyAttribute;
+        this.defaultCallId = defaultCallId;
+        this.languages = languages;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+    }
+
+    static LanguageSettingsService fromEnvironment() {
+        return new LanguageSettingsService(
+                new DynamoDBHelper(),
+                EnvConfig.getString("LANGUAGE_TABLE", "ICS_Showcase_language"),
+                "callId",
+                EnvConfig.getString("LANGUAGE_DEFAULT_CALL_ID", "1"),
+                loadLanguages(),
+                EnvConfig.getLong("LANGUAGE_CACHE_TTL_SECONDS", DEFAULT_TTL_MILLIS / 1000) * 1000,
+                EnvConfig.getLong("LANGUAGE_NEGATIVE_TTL_SECONDS", DEFAULT_NEGATIVE_TTL_MILLIS / 1000) * 1000,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param contactId the call's contact ID, or null to use the default settings
+     * @return languages of the call
+     * @throws IllegalStateException if neither the call nor the default has a usable settings row
+     */
+    CallLanguages getLanguages(String contactId) {
+        CallLanguages own = contactId != null ? lookup(contactId) : null;
+        if (own != null) {
+            return own;
+        }
+        CallLanguages fallback = lookup(defaultCallId);
+        if (fallback == null) {
+            throw new IllegalStateException("No language settings for contact " + contactId
+                    + " and no default row '" + defaultCallId + "' in " + tableName);
+        }
+        return fallback;
+    }
+
+    private CallLanguages lookup(String callId) {
+        long now = clock.getAsLong();
+        Entry created = new Entry();
+        Entry entry = entries.compute(callId, (key, current) ->
+                current == null || current.expiresAt <= now ? created : current);
+
+        if (entry == created) {
+            prune(now);
+            try {
+                CallLanguages result = read(callId);
+                entry.expiresAt = clock.getAsLong() + (result != null ? ttlMillis : negativeTtlMillis);
+                entry.languages.complete(result);
+            } catch (RuntimeException e) {
+                entries.remove(callId, entry);
+                entry.languages.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return entry.languages.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private CallLanguages read(String callId) {
+        Map<String, AttributeValue> item = helper.getItem(tableName, keyAttribute, callId, CUSTOMER_LANGUAGE, AGENT_LANGUAGE);
+        if (item.isEmpty()) {
+            return null;
+        }
+        return new CallLanguages(resolve(item, CUSTOMER_LANGUAGE), resolve(item, AGENT_LANGUAGE));
+    }
+
+    private LanguageDetails resolve(Map<String, AttributeValue> item, String attribute) {
+        AttributeValue value = item.get(attribute);
+        LanguageDetails details = value != null ? languages.get(value.s()) : null;
+        if (details == null) {
+            throw new IllegalStateException("Unknown " + attribute + " '" + (value != null ? value.s() : null)
+                    + "' in " + tableName);
+        }
+        return details;
+    }
+
+    private void prune(long now) {
+        if (entries.size() > MAX_ENTRIES) {
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Load the language table from LANGUAGE_CONFIG_FILE, or from the languages.tsv classpath resource when the
+     * variable is not set.
+     */
+    static Map<String, LanguageDetails> loadLanguages() {
+        String file = EnvConfig.getString("LANGUAGE_CONFIG_FILE", null);
+        try (InputStream in = file != null
+                ? Files.newInputStream(Paths.get(file))
+                : LanguageSettingsService.class.getClassLoader().getResourceAsStream(LANGUAGES_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing " + LANGUAGES_RESOURCE + " resource");
+            }
+            Map<String, LanguageDetails> languages = parseLanguages(new InputStreamReader(in, StandardCharsets.UTF_8));
+            logger.info("Loaded {} languages", languages.size());
+            return languages;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load language table", e);
+        }
+    }
+
+    static Map<String, LanguageDetails> parseLanguages(Reader reader) throws IOException {
+        Map<String, LanguageDetails> languages = new HashMap<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t", -1);
+            if (columns.length < 5) {
+                logger.warn("Skipping language line '{}': expected 5 tab separated columns", line);
+                continue;
+            }
+            languages.put(columns[0].trim(), new LanguageDetails(
+                    columns[1].trim(), columns[2].trim(), columns[3].trim(), columns[4].trim()));
+        }
+        return Collections.unmodifiableMap(languages);
+    }
+}
@@ -0,0 +1,70 @@
+package org.connectverse;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the call's contact ID in the logging MDC, so every log line of a call can be found by its contact ID even
+ * when many calls share one worker. The MDC is per thread; work handed to executors or SDK callback threads gets the
+ * context through {@link #propagate(Executor)}.
+ */
+final class LogContext {
+
+    static final String CONTACT_ID = "contactId";
+
+    private LogContext() {
+    }
+
+    /**
+     * Scope whose close never throws, for use in try-with-resources.
+     */
+    interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Put the contact ID into the MDC of the current thread until the returned scope is closed.
+     */
+    static Scope forContact(String contactId) {
+        if (contactId == null) {
+            return () -> { };
+        }
+        String previous = MDC.get(CONTACT_ID);
+        MDC.put(CONTACT_ID, contactId);
+        return () -> {
+            if (previous != null) {
+                MDC.put(CONTACT_ID, previous);
+            } else {
+                MDC.remove(CONTACT_ID);
+            }
+        };
+    }
+
+    /**
+     * Wrap an executor so its tasks run with the MDC of the thread that called this method. Pass Runnable::run to
+     * get an executor that runs dependent CompletableFuture stages inline, on the SDK thread, with the context set.
+     */
+    static Executor propagate(Executor delegate) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return task -> delegate.execute(() -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            setContext(context);
+            try {
+                task.run();
+            } finally {
+                setContext(previous);
+            }
+        });
+    }
+
+    private static void setContext(Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+}
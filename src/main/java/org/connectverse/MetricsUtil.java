@@ -0,0 +1,76 @@
+package org.connectverse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Writes metrics as CloudWatch Embedded Metric Format (EMF) log lines. CloudWatch Logs extracts the metrics from
+ * the Lambda's log stream, so recording a metric costs no API call.
+ *
+ * <p>Metrics go to the METRICS_NAMESPACE namespace (default ConnectVerse) with a single Service dimension.
+ * METRICS_ENABLED=false turns the output off.</p>
+ */
+final class MetricsUtil {
+
+    static final String UNIT_COUNT = "Count";
+    static final String UNIT_MILLISECONDS = "Milliseconds";
+    static final String UNIT_SECONDS = "Seconds";
+
+    // EMF accepts at most 100 values per metric in one log line
+    static final int MAX_VALUES_PER_LINE = 100;
+
+    private static final boolean ENABLED = EnvConfig.getBoolean("METRICS_ENABLED", true);
+    private static final String NAMESPACE = EnvConfig.getString("METRICS_NAMESPACE", "ConnectVerse");
+    private static final String SERVICE = "KDSTranslate";
+
+    private MetricsUtil() {
+    }
+
+    static void recordMetric(String name, double value) {
+        recordMetric(name, value, UNIT_COUNT);
+    }
+
+    static void recordMetric(String name, double value, String unit) {
+        JSONObject metrics = new JSONObject().put(name, value);
+        emit(metrics, Map.of(name, unit), new JSONObject());
+    }
+
+    /**
+     * Write one EMF line.
+     *
+     * @param values     metric name to a number or to a JSON array of up to 100 numbers
+     * @param units      metric name to its CloudWatch unit
+     * @param properties extra fields for the log line that are not metrics, e.g. the contact ID
+     */
+    static void emit(JSONObject values, Map<String, String> units, JSONObject properties) {
+        if (!ENABLED || values.isEmpty()) {
+            return;
+        }
+        // Raw stdout on purpose: CloudWatch only parses EMF from lines without a log prefix
+        System.out.println(toEmf(values, units, properties, System.currentTimeMillis()));
+    }
+
+    static String toEmf(JSONObject values, Map<String, String> units, JSONObject properties, long timestamp) {
+        JSONArray definitions = new JSONArray();
+        for (String name : values.keySet()) {
+            definitions.put(new JSONObject().put("Name", name).put("Unit", units.getOrDefault(name, "None")));
+        }
+
+        JSONObject directive = new JSONObject()
+                .put("Namespace", NAMESPACE)
+                .put("Dimensions", new JSONArray().put(new JSONArray().put("Service")))
+                .put("Metrics", definitions);
+
+        JSONObject line = new JSONObject(properties.toMap());
+        line.put("_aws", new JSONObject()
+                .put("Timestamp", timestamp)
+                .put("CloudWatchMetrics", new JSONArray().put(directive)));
+        line.put("Service", SERVICE);
+        for (String name : values.keySet()) {
+            line.put(name, values.get(name));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package org.connectverse;
+
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.ItemType;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the partial results of a Transcribe stream into early, non-overlapping text segments.
+ *
+ * <p>For every result ID it tracks how many leading words have already been handed out. A word counts as stable
+ * when Transcribe marks all of its items stable (partial results stabilization), or, when no stability
+ * information is present, when it has stayed unchanged in the last K partials. As soon as at least
+ * EARLY_TRANSLATION_MIN_WORDS new stable words are available they are returned as a segment. When the final result
+ * arrives only the words after the ones already handed out are returned, so nothing is translated twice.</p>
+ *
+ * <p>Not thread-safe; Transcribe delivers the events of a stream one at a time.</p>
+ */
+class PartialResultStabilizer {
+
+    private static final int DEFAULT_STABLE_PARTIALS = 3;
+    private static final int DEFAULT_MIN_WORDS = 4;
+
+    private final int stablePartials;
+    private final int minWords;
+    private final Map<String, ResultState> results = new HashMap<>();
+
+    PartialResultStabilizer() {
+        this(EnvConfig.getInt("EARLY_TRANSLATION_STABLE_PARTIALS", DEFAULT_STABLE_PARTIALS),
+                EnvConfig.getInt("EARLY_TRANSLATION_MIN_WORDS", DEFAULT_MIN_WORDS));
+    }
+
+    PartialResultStabilizer(int stablePartials, int minWords) {
+        this.stablePartials = Math.max(1, stablePartials);
+        this.minWords = Math.max(1, minWords);
+    }
+
+    /**
+     * @return the next early segment for this result, or an empty string if nothing new is stable yet
+     */
+    String onResult(Result result) {
+        if (result.alternatives().isEmpty()) {
+            return "";
+        }
+        Alternative alternative = result.alternatives().get(0);
+        List<String> words = new ArrayList<>();
+        List<Boolean> stable = new ArrayList<>();
+        toWords(alternative, words, stable);
+
+        return result.isPartial()
+                ? onPartial(result.resultId(), words, stable)
+                : onFinal(result.resultId(), words);
+    }
+
+    /**
+     * @param stable per word stability flags from Transcribe, or an empty list when the stream has none
+     */
+    String onPartial(String resultId, List<String> words, List<Boolean> stable) {
+        ResultState state = results.computeIfAbsent(resultId, id -> new ResultState());
+        state.history.addLast(words);
+        if (state.history.size() > stablePartials) {
+            state.history.removeFirst();
+        }
+
+        int stableCount = stable.isEmpty() ? unchangedPrefix(state.history) : stablePrefix(stable);
+        if (stableCount - state.emittedWords < minWords) {
+            return "";
+        }
+        String segment = String.join(" ", words.subList(state.emittedWords, stableCount));
+        state.emittedWords = stableCount;
+        return segment;
+    }
+
+    String onFinal(String resultId, List<String> words) {
+        ResultState state = results.remove(resultId);
+        int emitted = state == null ? 0 : Math.min(state.emittedWords, words.size());
+        return String.join(" ", words.subList(emitted, words.size()));
+    }
+
+    private int unchangedPrefix(Deque<List<String>> history) {
+        if (history.size() < stablePartials) {
+            return 0;
+        }
+        List<String> latest = history.peekLast();
+        int prefix = latest.size();
+        for (List<String> previous : history) {
+            int i = 0;
+            while (i < prefix && i < previous.size() && previous.get(i).equals(latest.get(i))) {
+                i++;
+            }
+            prefix = i;
+        }
+        // The last word of a partial is still being spoken; never treat it as stable
+        return Math.min(prefix, Math.max(0, latest.size() - 1));
+    }
+
+    private static int stablePrefix(List<Boolean> stable) {
+        int i = 0;
+        while (i < stable.size() && stable.get(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Build words from the result items, attaching punctuation to the preceding word. Falls back to splitting the
+     * transcript when the stream carries no items.
+     */
+    private static void toWords(Alternative alternative, List<String> words, List<Boolean> stable) {
+        List<Item> items = alternative.items();
+        if (items == null || items.isEmpty()) {
+            String transcript = alternative.transcript() == null ? "" : alternative.transcript().trim();
+            if (!transcript.isEmpty()) {
+                words.addAll(Arrays.asList(transcript.split("\\s+")));
+            }
+            return;
+        }
+
+        boolean hasStability = false;
+        for (Item item : items) {
+            boolean itemStable = Boolean.TRUE.equals(item.stable());
+            hasStability |= item.stable() != null;
+            if (item.type() == ItemType.PUNCTUATION && !words.isEmpty()) {
+                int last = words.size() - 1;
+                words.set(last, words.get(last) + item.content());
+                stable.set(last, stable.get(last) && itemStable);
+            } else {
+                words.add(item.content());
+                stable.add(itemStable);
+            }
+        }
+        if (!hasStability) {
+            stable.clear();
+        }
+    }
+
+    private static class ResultState {
+        private final Deque<List<String>> history = new ArrayDeque<>();
+        private int emittedWords = 0;
+    }
+}
@@ -1,31 +1,98 @@
 package org.connectverse;
 
-import com.amazonaws.services.polly.AmazonPolly;
-import com.amazonaws.services.polly.AmazonPollyClientBuilder;
-import com.amazonaws.services.polly.model.OutputFormat;
-import com.amazonaws.services.polly.model.SynthesizeSpeechRequest;
-import com.amazonaws.services.polly.model.SynthesizeSpeechResult;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.polly.PollyAsyncClient;
+import software.amazon.awssdk.services.polly.model.OutputFormat;
+import software.amazon.awssdk.services.polly.model.SynthesizeSpeechRequest;
+import software.amazon.awssdk.services.polly.model.SynthesizeSpeechResponse;
 
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Synthesizes speech with the async Polly client. The returned futures complete on SDK threads, so no pipeline
+ * thread waits while Polly is producing audio.
+ */
 public class PollySpeechSynthesizer {
+    // Shared by every call in the container so that common agent phrases are synthesized once
+    static final SpeechAudioCache CACHE = SpeechAudioCache.fromEnvironment();
+
     private final String languageCode;
     private final String voiceId;
-    private final AmazonPolly pollyClient;
+    private final PollyAsyncClient pollyClient;
+    private final SpeechAudioCache cache;
 
     public PollySpeechSynthesizer(String languageCode, String voiceId) {
+        this(languageCode, voiceId, AwsClients.polly());
+    }
+
+    public PollySpeechSynthesizer(String languageCode, String voiceId, PollyAsyncClient pollyClient) {
+        this(languageCode, voiceId, pollyClient, CACHE);
+    }
+
+    public PollySpeechSynthesizer(String languageCode, String voiceId, PollyAsyncClient pollyClient, SpeechAudioCache cache) {
         this.languageCode = languageCode;
         this.voiceId = voiceId;
-        this.pollyClient = AmazonPollyClientBuilder.standard()
-                .withRegion("us-east-1")
+        this.pollyClient = pollyClient;
+        this.cache = cache;
+    }
+
+    private SynthesizeSpeechRequest speechRequest(String text) {
+        return SynthesizeSpeechRequest.builder()
+                .text(text)
+                .voiceId(voiceId)
+                .languageCode(languageCode)
+                .outputFormat(OutputFormat.MP3)
                 .build();
     }
 
-    public SynthesizeSpeechResult synthesizeSpeech(String text) {
-        SynthesizeSpeechRequest request = new SynthesizeSpeechRequest()
-                .withText(text)
-                .withVoiceId(voiceId)
-                .withLanguageCode(languageCode)
-                .withOutputFormat(OutputFormat.Mp3);
-        return pollyClient.synthesizeSpeech(request);
+    public SynthesizedSpeech synthesize(String text) {
+        return synthesizeAsync(text).join();
     }
-}
 
+    /**
+     * Synthesize text and return the Base64 encoded audio, served from the speech cache when possible.
+     *
+     * @param text text to speak
+     * @return future of the encoded speech, ready for delivery
+     */
+    public CompletableFuture<SynthesizedSpeech> synthesizeAsync(String text) {
+        ByteBuffer cached = cache.get(voiceId, languageCode, text);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(new SynthesizedSpeech(cached, true));
+        }
+
+        return pollyClient.synthesizeSpeech(speechRequest(text), AsyncResponseTransformer.toBytes())
+                .thenApply(audio -> {
+                    byte[] encoded = Base64.getEncoder().encode(audio.asByteArrayUnsafe());
+                    cache.put(voiceId, languageCode, text, encoded);
+                    return new SynthesizedSpeech(ByteBuffer.wrap(encoded), false);
+                });
+    }
+
+    public SynthesizedSpeech synthesizeStreaming(String text) {
+        return synthesizeStreamingAsync(text).join();
+    }
+
+    /**
+     * Start synthesis and complete as soon as Polly starts answering, leaving the audio stream open so it can be
+     * delivered in frames while Polly is still producing it. Cache hits are returned buffered as usual.
+     *
+     * @param text text to speak
+     * @return future of the encoded speech from the cache, or of streaming speech that fills the cache once fully
+     * delivered
+     */
+    public CompletableFuture<SynthesizedSpeech> synthesizeStreamingAsync(String text) {
+        ByteBuffer cached = cache.get(voiceId, languageCode, text);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(new SynthesizedSpeech(cached, true));
+        }
+
+        CompletableFuture<ResponseInputStream<SynthesizeSpeechResponse>> response =
+                pollyClient.synthesizeSpeech(speechRequest(text), AsyncResponseTransformer.toBlockingInputStream());
+        return response.thenApply(audioStream -> SynthesizedSpeech.streaming(audioStream, cache.getMaxEntryBytes(),
+                encoded -> cache.put(voiceId, languageCode, text, encoded)));
+    }
+}
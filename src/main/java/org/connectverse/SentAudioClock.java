@@ -0,0 +1,72 @@
+package org.connectverse;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Maps offsets in the audio of the current Transcribe stream to the wall-clock time that audio was sent.
+ *
+ * <p>Transcribe reports result times as offsets into the audio it has received on the stream, not into the call.
+ * Audio the voice activity filter holds back never reaches it, and a retry starts a new stream at offset zero
+ * with the replayed audio, so adding an offset to the time the stream opened drifts away from when the words were
+ * actually spoken. Instead the subscription records every chunk it hands to Transcribe, and a result's end offset
+ * is looked up in that record.</p>
+ *
+ * <p>Only the last {@value #MAX_CHUNKS} chunks are kept (ten minutes of 100 ms frames); older offsets, offsets
+ * past the audio sent so far and offsets from before a {@link #restart()} are unknown.</p>
+ */
+class SentAudioClock {
+
+    private static final int BYTES_PER_SAMPLE = 2;
+    static final int MAX_CHUNKS = 6000;
+
+    private final double bytesPerSecond;
+    // {stream offset in bytes at the end of the chunk, epoch millis it was sent}, oldest first
+    private final ArrayDeque<long[]> chunks = new ArrayDeque<>();
+    private long sentBytes = 0;
+    // Offsets up to here were dropped from the record
+    private long forgottenBytes = 0;
+
+    SentAudioClock(int sampleRateHertz) {
+        this.bytesPerSecond = (double) sampleRateHertz * BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * A new Transcribe stream starts: offsets count from zero again.
+     */
+    synchronized void restart() {
+        chunks.clear();
+        sentBytes = 0;
+        forgottenBytes = 0;
+    }
+
+    synchronized void recordSent(int length, long sentAtMillis) {
+        sentBytes += length;
+        chunks.addLast(new long[]{sentBytes, sentAtMillis});
+        if (chunks.size() > MAX_CHUNKS) {
+            forgottenBytes = chunks.removeFirst()[0];
+        }
+    }
+
+    /**
+     * @param offsetSeconds offset into the audio of the current stream, as in a Transcribe result
+     * @return epoch milliseconds at which the chunk holding that offset was sent, or 0 if unknown
+     */
+    synchronized long getSentAtMillis(double offsetSeconds) {
+        long offsetBytes = Math.round(offsetSeconds * bytesPerSecond);
+        if (offsetBytes <= forgottenBytes || offsetBytes > sentBytes) {
+            return 0;
+        }
+        // Results are about recent audio, so search from the newest chunk back
+        long sentAt = 0;
+        Iterator<long[]> newestFirst = chunks.descendingIterator();
+        while (newestFirst.hasNext()) {
+            long[] chunk = newestFirst.next();
+            if (chunk[0] < offsetBytes) {
+                break;
+            }
+            sentAt = chunk[1];
+        }
+        return sentAt;
+    }
+}
@@ -0,0 +1,123 @@
+package org.connectverse;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least-recently-used cache of Base64 encoded Polly audio keyed by (voiceId, languageCode, text).
+ *
+ * <p>The cache is bounded by the number of bytes it holds rather than by entry count, because a one word
+ * acknowledgement and a long sentence differ in size by orders of magnitude. Entries larger than an eighth of
+ * the budget are not cached. With SPEECH_CACHE_OFF_HEAP=true the audio is kept in direct buffers so the cache does
+ * not add to the heap the Lambda has to garbage collect.</p>
+ */
+public class SpeechAudioCache {
+
+    private static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SpeechAudioCache(long maxBytes, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Build the cache from SPEECH_CACHE_MAX_BYTES (0 disables caching) and SPEECH_CACHE_OFF_HEAP.
+     */
+    static SpeechAudioCache fromEnvironment() {
+        return new SpeechAudioCache(
+                EnvConfig.getLong("SPEECH_CACHE_MAX_BYTES", DEFAULT_MAX_BYTES),
+                EnvConfig.getBoolean("SPEECH_CACHE_OFF_HEAP", false));
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return the cached Base64 audio as a read-only buffer, or null on a miss
+     */
+    public ByteBuffer get(String voiceId, String languageCode, String text) {
+        if (!isEnabled()) {
+            return null;
+        }
+        ByteBuffer cached;
+        synchronized (entries) {
+            cached = entries.get(key(voiceId, languageCode, text));
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.asReadOnlyBuffer();
+    }
+
+    /**
+     * Store Base64 audio. The bytes are copied, so the caller may reuse the array.
+     */
+    public void put(String voiceId, String languageCode, String text, byte[] encodedAudio) {
+        if (!isEnabled() || encodedAudio.length > maxEntryBytes) {
+            return;
+        }
+        ByteBuffer stored = offHeap ? ByteBuffer.allocateDirect(encodedAudio.length) : ByteBuffer.allocate(encodedAudio.length);
+        stored.put(encodedAudio).flip();
+
+        synchronized (entries) {
+            ByteBuffer previous = entries.put(key(voiceId, languageCode, text), stored);
+            if (previous != null) {
+                currentBytes -= previous.capacity();
+            }
+            currentBytes += stored.capacity();
+
+            Iterator<Map.Entry<String, ByteBuffer>> eldest = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                currentBytes -= eldest.next().getValue().capacity();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the largest encoded clip that will be accepted by {@link #put}
+     */
+    public long getMaxEntryBytes() {
+        return isEnabled() ? maxEntryBytes : 0;
+    }
+
+    public long getCurrentBytes() {
+        synchronized (entries) {
+            return currentBytes;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static String key(String voiceId, String languageCode, String text) {
+        return voiceId + '\u0000' + languageCode + '\u0000' + text.trim();
+    }
+}
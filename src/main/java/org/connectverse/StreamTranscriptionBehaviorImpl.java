@@ -1,6 +1,5 @@
 package org.connectverse;
 
-import com.amazonaws.services.polly.model.SynthesizeSpeechResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.transcribestreaming.model.Result;
@@ -8,8 +7,9 @@ import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTran
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
 
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Implementation of StreamTranscriptionBehavior to define how a stream response is handled.
@@ -32,22 +32,56 @@ import java.util.List;
 public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehavior {
 
     private static final Logger logger = LoggerFactory.getLogger(StreamTranscriptionBehaviorImpl.class);
+    static final String WEBSOCKET_ENDPOINT = "https://encgiyvrte.execute-api.us-east-1.amazonaws.com/dev/";
+    static final String CONNECTION_TABLE = "ICS_Showcase_Call_Handler";
     private final TranscriptionRequest request;
     private final TranslateText translateText;
     private final PollySpeechSynthesizer synthesizer;
     private final WebSocketStreamer streamer;
+    private final TranslationPipeline pipeline;
+    // Only set in early translation mode (EARLY_TRANSLATION=true)
+    private final PartialResultStabilizer stabilizer;
+    // When the audio of the current Transcribe stream was sent; null if unknown, and then no audio end is reported
+    private final SentAudioClock sentAudioClock;
+    // Set when the call's other leg runs in the same process
+    private final CallSession callSession;
 
     public StreamTranscriptionBehaviorImpl(TranscriptionRequest request) {
+        this(request, null, null);
+    }
+
+    StreamTranscriptionBehaviorImpl(TranscriptionRequest request, CallSession callSession,
+                                    SentAudioClock sentAudioClock) {
         this.request = request;
+        this.callSession = callSession;
+        this.sentAudioClock = sentAudioClock;
 
         translateText = new TranslateText(request.getTranslateFromLanguageCode(), request.getTranslateToLanguageCode());
         synthesizer = new PollySpeechSynthesizer(request.getPollyLanguageCode(), request.getPollyVoiceId());
-        streamer = new WebSocketStreamer("https://encgiyvrte.execute-api.us-east-1.amazonaws.com/dev/", "ICS_Showcase_Call_Handler", request.getReceiver());
+        streamer = new WebSocketStreamer(WEBSOCKET_ENDPOINT, CONNECTION_TABLE, request.getReceiver());
+        pipeline = new TranslationPipeline(translateText, synthesizer, streamer,
+                new CallMetrics(request.getConnectContactId(), String.valueOf(request.getCommunicator())));
+        stabilizer = isEarlyTranslationEnabled() ? new PartialResultStabilizer() : null;
+        if (callSession != null) {
+            callSession.attach(request.getCommunicator(), pipeline);
+        }
+    }
+
+    /**
+     * In early translation mode stable prefixes of partial results are translated as soon as they settle, instead
+     * of waiting for Transcribe to finalize the segment.
+     */
+    static boolean isEarlyTranslationEnabled() {
+        return EnvConfig.getBoolean("EARLY_TRANSLATION", false);
     }
 
     @Override
     public void onError(Throwable e) {
-        logger.error("Error in middle of stream: ", e);
+        try (LogContext.Scope ignored = LogContext.forContact(request.getConnectContactId())) {
+            logger.error("Error in middle of stream: ", e);
+            detach();
+            pipeline.closeAsync();
+        }
     }
 
     @Override
@@ -57,58 +91,126 @@ public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehav
 //        System.out.println("Transcript result stream: " + e.toString());
         TranscriptEvent event = (TranscriptEvent) e;
 
-        String transcript = getTranscript(event);
+        if (callSession != null) {
+            detectSpeechStart(event);
+        }
+        List<String> segments = stabilizer != null ? getEarlySegments(event) : getFinalSegments(event);
+
+        if (!segments.isEmpty()) {
+            try (LogContext.Scope ignored = LogContext.forContact(request.getConnectContactId())) {
+                logger.debug("Transcribed text: {}", segments);
+                // Translation, synthesis and delivery happen off the Transcribe event thread, and submit never
+                // blocks it. All segments of one event travel together so they are translated in a single call.
+                pipeline.submit(segments, getAudioEndMillis(event));
+            }
+        }
+    }
 
-        if (!transcript.isEmpty()) {
-            System.out.println("Transcribed text: '" + transcript + "'");
-            String translatedText = translateText.translate(transcript);
-            System.out.println("Translated text: '" + translatedText + "'");
+    /**
+     * Report every result to the call session, which decides when the speaker has started a new utterance.
+     */
+    private void detectSpeechStart(TranscriptEvent event) {
+        for (Result result : event.transcript().results()) {
+            if (!result.alternatives().isEmpty()) {
+                callSession.onTranscript(request.getCommunicator(), result.resultId(),
+                        countWords(result.alternatives().get(0).transcript()));
+            }
+        }
+    }
 
-            System.out.println("Finished synthesizing speech for: " + translatedText);
-            SynthesizeSpeechResult speechResult = synthesizer.synthesizeSpeech(translatedText);
+    static int countWords(String transcript) {
+        String trimmed = transcript == null ? "" : transcript.trim();
+        return trimmed.isEmpty() ? 0 : trimmed.split("\\s+").length;
+    }
 
-            streamer.streamAudioToConnections(speechResult);
-            System.out.println("Finished streaming to socket for: " + translatedText);
-        }
+    /**
+     * @return completes once the utterances of this stream are delivered, after the stream has ended
+     */
+    CompletableFuture<Void> delivered() {
+        return pipeline.closeAsync();
     }
 
-    String getTranscript(TranscriptEvent transcriptEvent) {
-        List<Result> results = transcriptEvent.transcript().results();
-        String transcript = "";
+    void flushMetrics() {
+        pipeline.flushMetrics();
+    }
 
-        if (results.size() > 0) {
+    private void detach() {
+        if (callSession != null) {
+            callSession.detach(request.getCommunicator(), pipeline);
+        }
+    }
 
-            Result result = results.get(0);
-//            System.out.println("At least got some result: " + result.toString());
+    /**
+     * Collect the transcript of every final result in the event. Transcribe can finalize more than one segment in
+     * a single event; only the first alternative of each result is used, the others are lower-ranked guesses for
+     * the same audio.
+     *
+     * @return final segments in the order Transcribe reported them, possibly empty
+     */
+    static List<String> getFinalSegments(TranscriptEvent transcriptEvent) {
+        List<String> segments = new ArrayList<>();
+
+        for (Result result : transcriptEvent.transcript().results()) {
+            if (result.isPartial() || result.alternatives().isEmpty()) {
+                continue;
+            }
+            String transcript = result.alternatives().get(0).transcript();
+            if (transcript != null && !transcript.isEmpty()) {
+                segments.add(transcript);
+            }
+        }
 
-            if (!result.isPartial()) {
-                try {
-                    if (result.alternatives().size() > 0) {
-                        if (!result.alternatives().get(0).transcript().isEmpty()) {
-                            transcript = result.alternatives().get(0).transcript();
-                        }
-                    }
+        return segments;
+    }
 
-                    System.out.println("Processed transcript at: " + Instant.now().getEpochSecond());
+    static String getTranscript(TranscriptEvent transcriptEvent) {
+        return String.join(" ", getFinalSegments(transcriptEvent));
+    }
 
-                } catch (Exception e) {
-                    logger.error("Could not process transcript: ", e);
-                }
+    /**
+     * @return for every result in the event, the newly stable words of a partial or the rest of a final segment
+     */
+    List<String> getEarlySegments(TranscriptEvent transcriptEvent) {
+        List<String> segments = new ArrayList<>();
+        for (Result result : transcriptEvent.transcript().results()) {
+            String segment = stabilizer.onResult(result);
+            if (!segment.isEmpty()) {
+                segments.add(segment);
             }
         }
+        return segments;
+    }
 
-        return transcript;
+    /**
+     * Find when the audio of the event's results ended, as the time the audio at their last end offset was sent to
+     * Transcribe. With no reliable time, TranscribeLatency is not recorded for the utterance.
+     *
+     * @return epoch milliseconds, or 0 if the offsets or the send times are unknown
+     */
+    long getAudioEndMillis(TranscriptEvent transcriptEvent) {
+        double endSeconds = -1;
+        for (Result result : transcriptEvent.transcript().results()) {
+            if (result.endTime() != null) {
+                endSeconds = Math.max(endSeconds, result.endTime());
+            }
+        }
+        return sentAudioClock == null || endSeconds < 0 ? 0 : sentAudioClock.getSentAtMillis(endSeconds);
     }
 
     @Override
     public void onResponse(StartStreamTranscriptionResponse r) {
-        System.out.println(String.format("%d Received Initial response from Transcribe. Request Id: %s",
-                System.currentTimeMillis(), r.requestId()));
+        try (LogContext.Scope ignored = LogContext.forContact(request.getConnectContactId())) {
+            logger.info("Received initial response from Transcribe. Request Id: {}", r.requestId());
+        }
     }
 
     @Override
     public void onComplete() {
-        System.out.println("Transcribe stream completed");
+        try (LogContext.Scope ignored = LogContext.forContact(request.getConnectContactId())) {
+            logger.info("Transcribe stream completed");
+            detach();
+            pipeline.closeAsync();
+        }
     }
 }
 
@@ -0,0 +1,80 @@
+package org.connectverse;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Polly output for one utterance, in one of two forms:
+ * <ul>
+ *     <li>buffered: the whole clip, already Base64 encoded and ready to be wrapped into a WebSocket message. The
+ *     buffer is read-only and may be shared with the {@link SpeechAudioCache}; always read it through a duplicate.</li>
+ *     <li>streaming: the still-open Polly audio stream, read and posted frame by frame as bytes arrive. Once the
+ *     delivery has seen the whole clip it hands the encoded audio to the cache writer, if there is one.</li>
+ * </ul>
+ */
+class SynthesizedSpeech {
+    private final ByteBuffer encodedAudio;
+    private final boolean cached;
+    private final InputStream audioStream;
+    private final long cacheLimitBytes;
+    private final Consumer<byte[]> cacheWriter;
+
+    SynthesizedSpeech(ByteBuffer encodedAudio, boolean cached) {
+        this.encodedAudio = encodedAudio.asReadOnlyBuffer();
+        this.cached = cached;
+        this.audioStream = null;
+        this.cacheLimitBytes = 0;
+        this.cacheWriter = null;
+    }
+
+    private SynthesizedSpeech(InputStream audioStream, long cacheLimitBytes, Consumer<byte[]> cacheWriter) {
+        this.encodedAudio = null;
+        this.cached = false;
+        this.audioStream = audioStream;
+        this.cacheLimitBytes = cacheLimitBytes;
+        this.cacheWriter = cacheWriter;
+    }
+
+    /**
+     * @param audioStream     open Polly audio stream; closed by whoever delivers it
+     * @param cacheLimitBytes largest encoded clip worth collecting for the cache
+     * @param cacheWriter     receives the complete encoded clip, or null to skip caching
+     */
+    static SynthesizedSpeech streaming(InputStream audioStream, long cacheLimitBytes, Consumer<byte[]> cacheWriter) {
+        return new SynthesizedSpeech(audioStream, cacheLimitBytes, cacheWriter);
+    }
+
+    public boolean isStreaming() {
+        return audioStream != null;
+    }
+
+    /**
+     * @return Base64 audio as US-ASCII bytes, or null for streaming speech
+     */
+    public ByteBuffer getEncodedAudio() {
+        return encodedAudio == null ? null : encodedAudio.duplicate();
+    }
+
+    public int getEncodedLength() {
+        return encodedAudio == null ? -1 : encodedAudio.remaining();
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public InputStream getAudioStream() {
+        return audioStream;
+    }
+
+    public long getCacheLimitBytes() {
+        return cacheWriter == null ? 0 : cacheLimitBytes;
+    }
+
+    void writeToCache(byte[] encoded) {
+        if (cacheWriter != null) {
+            cacheWriter.accept(encoded);
+        }
+    }
+}
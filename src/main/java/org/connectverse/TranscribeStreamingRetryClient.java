@@ -1,7 +1,5 @@
 package org.connectverse;
 
-import com.amazonaws.regions.Regions;
-import org.apache.commons.lang3.Validate;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,8 +15,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Build a client wrapper around the Amazon Transcribe client to retry
@@ -44,9 +47,15 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
 
     private static final int DEFAULT_MAX_RETRIES = 3;
     private static final int DEFAULT_MAX_SLEEP_TIME_MILLS = 100;
+    private static final int MAX_BACKOFF_MILLS = 2000;
+
+    // Retries are scheduled here instead of sleeping on the SDK thread that reported the failure
+    private static final ScheduledExecutorService RETRY_TIMER =
+            Executors.newSingleThreadScheduledExecutor(ExecutorFactory.daemonThreadFactory("transcribe-retry"));
     private int maxRetries = DEFAULT_MAX_RETRIES;
     private int sleepTime = DEFAULT_MAX_SLEEP_TIME_MILLS;
     private final TranscribeStreamingAsyncClient client;
+    private final boolean closeClientOnClose;
     List<Class<?>> nonRetriableExceptions = Arrays.asList(SdkClientException.class);
 
     private static final Logger logger = LoggerFactory.getLogger(TranscribeStreamingRetryClient.class);
@@ -60,11 +69,11 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
      * @throws URISyntaxException if the endpoint is not a URI
      */
     public TranscribeStreamingRetryClient(AwsCredentialsProvider creds,
-                                          String endpoint, Regions region) throws URISyntaxException {
+                                          String endpoint, Region region) throws URISyntaxException {
         this(TranscribeStreamingAsyncClient.builder()
                 .credentialsProvider(creds)
                 .endpointOverride(new URI(endpoint))
-                .region(Region.of(region.getName()))
+                .region(region)
                 .build());
     }
 
@@ -74,7 +83,18 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
      * @param client      TranscribeStreamingAsyncClient
      */
     public TranscribeStreamingRetryClient(TranscribeStreamingAsyncClient client) {
+        this(client, true);
+    }
+
+    /**
+     * Initiate TranscribeStreamingRetryClient with a TranscribeStreamingAsyncClient that may be shared
+     *
+     * @param client             TranscribeStreamingAsyncClient
+     * @param closeClientOnClose false when the client is shared (e.g. from AwsClients) and must outlive this wrapper
+     */
+    public TranscribeStreamingRetryClient(TranscribeStreamingAsyncClient client, boolean closeClientOnClose) {
         this.client = client;
+        this.closeClientOnClose = closeClientOnClose;
     }
 
     /**
@@ -105,7 +125,7 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
     }
 
     /**
-     * Set sleep time between retries
+     * Set sleep time between retries. It is the base of an exponential backoff with jitter, capped at 2 seconds.
      *
      * @param sleepTime sleep time
      */
@@ -126,9 +146,9 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
                                                             final Publisher<AudioStream> publisher,
                                                             final StreamTranscriptionBehavior responseHandler) {
 
-        Validate.notNull(request);
-        Validate.notNull(publisher);
-        Validate.notNull(responseHandler);
+        Objects.requireNonNull(request);
+        Objects.requireNonNull(publisher);
+        Objects.requireNonNull(responseHandler);
 
         CompletableFuture<Void> finalFuture = new CompletableFuture<>();
 
@@ -155,38 +175,41 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
                 getResponseHandler(responseHandler));
         result.whenComplete((r, e) -> {
             if (e != null) {
-                e.printStackTrace();
-
                 if (retryAttempt <= maxRetries && isExceptionRetriable(e)) {
-                    logger.debug("Retriable error occurred and will be retried.");
-                    logger.debug("Sleeping for sometime before retrying...");
-                    try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e1) {
-                        logger.error("Sleep between retries interrupted. Failed with exception: ", e);
-                        finalFuture.completeExceptionally(e);
-                    }
-                    logger.debug("Making retry attempt: " + (retryAttempt + 1));
-                    recursiveStartStream(request, publisher, responseHandler, finalFuture, retryAttempt + 1);
+                    long backoff = getBackoffMillis(retryAttempt);
+                    logger.warn("Retriable error occurred and will be retried in {} ms: {}", backoff, e.toString());
+                    // The publisher resumes the audio from its checkpoints, so nothing spoken meanwhile is lost
+                    RETRY_TIMER.schedule(() -> {
+                        logger.debug("Making retry attempt: {}", retryAttempt + 1);
+                        recursiveStartStream(request, publisher, responseHandler, finalFuture, retryAttempt + 1);
+                    }, backoff, TimeUnit.MILLISECONDS);
                 } else {
                     logger.error("Encountered unretriable exception or ran out of retries.", e);
+                    MetricsUtil.recordMetric("TranscribeStreamError", 1);
                     responseHandler.onError(e);
                     finalFuture.completeExceptionally(e);
                 }
             } else {
                 logger.info("Completable future is complete.");
-                //metricsUtil.recordMetric("TranscribeStreamError", 0);
+                MetricsUtil.recordMetric("TranscribeStreamError", 0);
                 responseHandler.onComplete();
                 finalFuture.complete(null);
             }
         });
     }
 
+    /**
+     * Exponential backoff from the configured sleep time with full jitter in its upper half, so the first retry
+     * happens quickly and repeated failures do not hammer the service in lockstep.
+     */
+    private long getBackoffMillis(int retryAttempt) {
+        long exponential = Math.min(MAX_BACKOFF_MILLS, (long) sleepTime << Math.min(retryAttempt, 10));
+        return exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+    }
+
     private StartStreamTranscriptionRequest rebuildRequestWithSession(StartStreamTranscriptionRequest request) {
-        return StartStreamTranscriptionRequest.builder()
-                .languageCode(request.languageCode())
-                .mediaEncoding(request.mediaEncoding())
-                .mediaSampleRateHertz(request.mediaSampleRateHertz())
+        // Keep every other field, such as channel count and partial results stabilization
+        return request.toBuilder()
                 .sessionId(UUID.randomUUID().toString())
                 .build();
     }
@@ -203,11 +226,11 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
                 })
                 .onError(e -> {
                     //Do nothing here. Don't close any streams that shouldn't be cleaned up yet.
-                    logger.info("Reached on error but doing nothing" + e);
+                    logger.debug("Reached on error but doing nothing: {}", e.toString());
                 })
                 .onComplete(() -> {
                     //Do nothing here. Don't close any streams that shouldn't be cleaned up yet.
-                    logger.info("Reached on complete.");
+                    logger.debug("Reached on complete.");
                 })
                 .subscriber(event -> {
                     try {
@@ -216,7 +239,7 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
                     // We swallow any exception occurred while processing the TranscriptEvent and continue transcribing
                     // Transcribe errors will however cause the future to complete exceptionally and we'll retry (if applicable)
                     catch (Exception e) {
-                        logger.info("Found exception while translating: " + Arrays.toString(e.getStackTrace()));
+                        logger.warn("Found exception while translating", e);
                     }
                 })
                 .build();
@@ -230,15 +253,18 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
      * @return True if the exception is retriable
      */
     private boolean isExceptionRetriable(Throwable e) {
-        if (nonRetriableExceptions.contains(e.getCause().getClass())) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        if (nonRetriableExceptions.contains(cause.getClass())) {
             return false;
         }
         return true;
     }
 
     @Override
-    public void close() throws Exception {
+    public void close() {
         logger.debug("TranscribeStreamingRetryClient closed");
-        this.client.close();
+        if (closeClientOnClose) {
+            this.client.close();
+        }
     }
 }
@@ -1,33 +1,167 @@
 package org.connectverse;
 
-import com.amazonaws.services.translate.AmazonTranslate;
-import com.amazonaws.services.translate.AmazonTranslateClientBuilder;
-import com.amazonaws.services.translate.model.TranslateTextRequest;
-import com.amazonaws.services.translate.model.TranslateTextResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.translate.TranslateAsyncClient;
+import software.amazon.awssdk.services.translate.model.TranslateTextRequest;
+import software.amazon.awssdk.services.translate.model.TranslateTextResponse;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Translates transcripts with the async Translate client. The *Async methods never block; their futures complete
+ * on SDK threads once Translate answers. The blocking variants are kept for callers outside the pipeline.
+ */
 public class TranslateText {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranslateText.class);
+
+    // Shared by every call in the container so that repeated phrases are translated once
+    static final TranslationCache CACHE = TranslationCache.fromEnvironment();
+    // Combines the requests of concurrent calls; null unless TRANSLATE_BATCH_WINDOW_MS is set
+    static final BatchingTranslator BATCHER = BatchingTranslator.fromEnvironment();
+
+    private static final String SEGMENT_SEPARATOR = "\n";
+
     String source, target;
+    private final TranslateAsyncClient translate;
+    private final TranslationCache cache;
+    private final BatchingTranslator batcher;
 
     public TranslateText(String source, String target) {
+        this(source, target, AwsClients.translate(), CACHE, BATCHER);
+    }
+
+    public TranslateText(String source, String target, TranslateAsyncClient translate) {
+        this(source, target, translate, CACHE);
+    }
+
+    public TranslateText(String source, String target, TranslateAsyncClient translate, TranslationCache cache) {
+        this(source, target, translate, cache, null);
+    }
+
+    public TranslateText(String source, String target, TranslateAsyncClient translate, TranslationCache cache,
+                         BatchingTranslator batcher) {
         this.source = source;
         this.target = target;
+        this.translate = translate;
+        this.cache = cache;
+        this.batcher = batcher;
     }
 
     public String translate(String transcript) {
-        // Create an AmazonTranslate client
-        AmazonTranslate translate = AmazonTranslateClientBuilder.standard()
-                .withRegion("us-east-1") // specify the region you configured
-                .build();
+        return translateAsync(transcript).join();
+    }
+
+    public CompletableFuture<String> translateAsync(String transcript) {
+        String cached = cache.get(source, target, transcript);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
 
-        // Create request
-        TranslateTextRequest request = new TranslateTextRequest()
-                .withText(transcript)
-                .withSourceLanguageCode(source)
-                .withTargetLanguageCode(target);
+        return translateUncachedAsync(source, target, transcript).thenApply(translatedText -> {
+            cache.put(source, target, transcript, translatedText);
+            return translatedText;
+        });
+    }
 
-        // Translate the text
-        TranslateTextResult result = translate.translateText(request);
+    public String translateSegments(List<String> segments) {
+        return translateSegmentsAsync(segments).join();
+    }
+
+    /**
+     * Translate several segments with at most one Translate request. Segments found in the cache are not sent; the
+     * rest are joined with line breaks, which Translate keeps, and the translation is split back so every segment
+     * is cached on its own. If the translation does not come back with one line per segment it cannot be split
+     * reliably, and the missing segments are translated one by one instead.
+     *
+     * @param segments transcript segments in spoken order
+     * @return future of the translated segments joined with a space
+     */
+    public CompletableFuture<String> translateSegmentsAsync(List<String> segments) {
+        if (segments.size() == 1) {
+            return translateAsync(segments.get(0));
+        }
+
+        String[] translated = new String[segments.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            translated[i] = cache.get(source, target, segments.get(i));
+            if (translated[i] == null) {
+                missing.add(i);
+            }
+        }
+
+        CompletableFuture<Void> done;
+        if (missing.isEmpty()) {
+            done = CompletableFuture.completedFuture(null);
+        } else if (missing.size() == 1 || batcher != null) {
+            // The batcher joins these with the segments of other calls anyway
+            done = translateEach(segments, missing, translated);
+        } else {
+            StringBuilder joined = new StringBuilder();
+            for (int i : missing) {
+                if (joined.length() > 0) {
+                    joined.append(SEGMENT_SEPARATOR);
+                }
+                // A line break inside a segment would shift every segment after it
+                joined.append(segments.get(i).replace('\n', ' '));
+            }
+
+            done = translateUncachedAsync(source, target, joined.toString()).thenCompose(translation -> {
+                String[] lines = translation.split(SEGMENT_SEPARATOR);
+                if (lines.length != missing.size()) {
+                    logger.warn("Batched translation returned {} lines for {} segments, translating them separately",
+                            lines.length, missing.size());
+                    return translateEach(segments, missing, translated);
+                }
+                for (int j = 0; j < lines.length; j++) {
+                    int i = missing.get(j);
+                    translated[i] = lines[j].trim();
+                    cache.put(source, target, segments.get(i), translated[i]);
+                }
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        return done.thenApply(ignored -> String.join(" ", translated));
+    }
+
+    private CompletableFuture<Void> translateEach(List<String> segments, List<Integer> indexes, String[] translated) {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[indexes.size()];
+        for (int j = 0; j < indexes.size(); j++) {
+            int i = indexes.get(j);
+            results[j] = translateAsync(segments.get(i)).thenAccept(translation -> translated[i] = translation);
+        }
+        return CompletableFuture.allOf(results);
+    }
+
+    String translateUncached(String sourceLanguage, String targetLanguage, String text) {
+        return translateUncachedAsync(sourceLanguage, targetLanguage, text).join();
+    }
+
+    CompletableFuture<String> translateUncachedAsync(String sourceLanguage, String targetLanguage, String text) {
+        if (batcher != null) {
+            return batcher.translate(sourceLanguage, targetLanguage, text);
+        }
+
+        TranslateTextRequest request = TranslateTextRequest.builder()
+                .text(text)
+                .sourceLanguageCode(sourceLanguage)
+                .targetLanguageCode(targetLanguage)
+                .build();
+
+        return translate.translateText(request).thenApply(TranslateTextResponse::translatedText);
+    }
 
-        return result.getTranslatedText();
+    /**
+     * Load the translation pre-warm list into the shared cache. Meant to be called once at cold start.
+     *
+     * @return number of phrases loaded
+     */
+    public static int prewarmCache() {
+        return CACHE.prewarm(new TranslateText("en", "en"));
     }
 }
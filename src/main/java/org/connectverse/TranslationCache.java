@@ -0,0 +1,196 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, thread-safe cache of translations keyed by (source language, target language, normalized text).
+ *
+ * <p>Entries are evicted least-recently-used once the cache holds more than {@code maxEntries}, and are treated as
+ * missing once they are older than the TTL. Call-center speech repeats the same short phrases constantly, so a
+ * small cache avoids a large share of Translate round trips.</p>
+ *
+ * <p>A pre-warm list can be loaded at cold start. Each line is tab separated:
+ * {@code source<TAB>target<TAB>text[<TAB>translation]}. Lines without a translation are translated once while
+ * loading; blank lines and lines starting with {@code #} are ignored.</p>
+ */
+public class TranslationCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranslationCache.class);
+
+    private static final int DEFAULT_MAX_ENTRIES = 2000;
+    private static final long DEFAULT_TTL_MILLIS = 6 * 60 * 60 * 1000L;
+    private static final String PREWARM_RESOURCE = "translation-prewarm.tsv";
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, CachedTranslation> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TranslationCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, System::currentTimeMillis);
+    }
+
+    TranslationCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Build the cache from TRANSLATION_CACHE_SIZE (0 disables caching) and TRANSLATION_CACHE_TTL_SECONDS.
+     */
+    static TranslationCache fromEnvironment() {
+        return new TranslationCache(
+                EnvConfig.getInt("TRANSLATION_CACHE_SIZE", DEFAULT_MAX_ENTRIES),
+                EnvConfig.getLong("TRANSLATION_CACHE_TTL_SECONDS", DEFAULT_TTL_MILLIS / 1000) * 1000);
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    public String get(String source, String target, String text) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = key(source, target, text);
+        synchronized (entries) {
+            CachedTranslation cached = entries.get(key);
+            if (cached != null && clock.getAsLong() - cached.createdAt > ttlMillis) {
+                entries.remove(key);
+                cached = null;
+            }
+            if (cached == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return cached.translation;
+        }
+    }
+
+    public void put(String source, String target, String text, String translation) {
+        if (!isEnabled() || translation == null) {
+            return;
+        }
+        String key = key(source, target, text);
+        synchronized (entries) {
+            entries.put(key, new CachedTranslation(translation, clock.getAsLong()));
+            Iterator<Map.Entry<String, CachedTranslation>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Load the pre-warm list from TRANSLATION_CACHE_PREWARM_FILE, or from the translation-prewarm.tsv classpath
+     * resource when the variable is not set.
+     *
+     * @param translator used for lines that carry no translation
+     * @return number of entries added to the cache
+     */
+    public int prewarm(TranslateText translator) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        String file = EnvConfig.getString("TRANSLATION_CACHE_PREWARM_FILE", null);
+        try (InputStream in = file != null
+                ? Files.newInputStream(Paths.get(file))
+                : TranslationCache.class.getClassLoader().getResourceAsStream(PREWARM_RESOURCE)) {
+            if (in == null) {
+                return 0;
+            }
+            return prewarm(new InputStreamReader(in, StandardCharsets.UTF_8), translator);
+        } catch (IOException e) {
+            logger.warn("Could not load translation pre-warm list: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    int prewarm(Reader reader, TranslateText translator) throws IOException {
+        int loaded = 0;
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            if (columns.length < 3) {
+                continue;
+            }
+            try {
+                String translation = columns.length > 3
+                        ? columns[3]
+                        : translator.translateUncached(columns[0], columns[1], columns[2]);
+                put(columns[0], columns[1], columns[2], translation);
+                loaded++;
+            } catch (Exception e) {
+                logger.warn("Skipping pre-warm entry '{}': {}", columns[2], e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Collapse whitespace and case so that transcripts differing only in those still share an entry.
+     */
+    static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String key(String source, String target, String text) {
+        return source + '\u0000' + target + '\u0000' + normalize(text);
+    }
+
+    private static class CachedTranslation {
+        private final String translation;
+        private final long createdAt;
+
+        private CachedTranslation(String translation, long createdAt) {
+            this.translation = translation;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package org.connectverse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs the translate, synthesize and deliver stages for final transcripts off the Transcribe event thread.
+ *
+ * <p>Translation and synthesis are async SDK calls composed into one future per utterance, so utterance N+1 can be
+ * translating while N is being synthesized and no thread is parked while a request is in flight. Delivery is
+ * chained on the previous utterance's delivery and runs on a single thread, so audio always reaches the WebSocket
+ * in the order the transcripts were submitted.</p>
+ *
+ * <p>The number of utterances in flight is capped. {@link #submit(String)} never blocks, because it is called on the
+ * SDK event loop that also completes the Translate and Polly requests holding the slots. Once the cap is reached,
+ * further transcripts are held in a backlog and go out together as one utterance when a slot frees up. When speech
+ * outruns delivery by more than {@value #MAX_BACKLOG_SEGMENTS} segments, the oldest segments are dropped. Within
+ * that cap, the translate and synthesize stages each have their own limit on concurrent requests; an utterance over
+ * a stage's limit waits for an earlier request of that stage to complete. Delivery always runs one at a time.
+ * Transcripts submitted after {@link #closeAsync()} are dropped.</p>
+ *
+ * <p>With AUDIO_DELIVERY_MODE=chunked the synthesize stage only opens the Polly stream and the deliver stage posts
+ * the audio in sequenced frames as it arrives, instead of waiting for the whole clip.</p>
+ *
+ * <p>{@link #cancelPending()} drops the utterances that have not been delivered yet, for example when the listener
+ * starts talking and the queued speech is no longer wanted. Cancelled utterances skip synthesis if they have not
+ * reached it, and are never posted.</p>
+ *
+ * <p>Every stage logs with the MDC of the thread that created the pipeline, so log lines written on SDK and
+ * delivery threads still carry the call's contact ID.</p>
+ *
+ * <p>Tuned through the PIPELINE_MAX_IN_FLIGHT, PIPELINE_TRANSLATE_CONCURRENCY, PIPELINE_SYNTHESIZE_CONCURRENCY and
+ * AUDIO_DELIVERY_MODE environment variables. The stage limits default to PIPELINE_MAX_IN_FLIGHT.</p>
+ */
+public class TranslationPipeline implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranslationPipeline.class);
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    static final int MAX_BACKLOG_SEGMENTS = 64;
+
+    private final TranslateText translateText;
+    private final PollySpeechSynthesizer synthesizer;
+    private final WebSocketStreamer streamer;
+    private final CallMetrics metrics;
+    private final boolean chunkedDelivery = "chunked".equalsIgnoreCase(EnvConfig.getString("AUDIO_DELIVERY_MODE", "buffered"));
+
+    private final ExecutorService deliverExecutor;
+    private final Executor deliverContext;
+    // Runs completion stages inline on the completing SDK thread, with this call's MDC
+    private final Executor inlineContext;
+    private final Semaphore inFlight;
+    private final StageLimit translateLimit;
+    private final StageLimit synthesizeLimit;
+    private final AtomicLong sequence = new AtomicLong(0);
+    // Utterances with a sequence number up to this one are dropped
+    private final AtomicLong cancelledThrough = new AtomicLong(0);
+    private final AtomicLong cancelledUtterances = new AtomicLong();
+    private final AtomicLong droppedSegments = new AtomicLong();
+
+    // Tail of the delivery chain; every new utterance is delivered only after this completes
+    private CompletableFuture<Void> lastDelivery = CompletableFuture.completedFuture(null);
+    // Segments submitted while every slot was taken, and the audio end of the newest of them; guarded by this
+    private final List<String> backlog = new ArrayList<>();
+    private long backlogAudioEndMillis = 0;
+    // Set once close has started; guarded by this
+    private CompletableFuture<Void> closed;
+
+    public TranslationPipeline(TranslateText translateText, PollySpeechSynthesizer synthesizer, WebSocketStreamer streamer) {
+        this(translateText, synthesizer, streamer, new CallMetrics(null, null));
+    }
+
+    TranslationPipeline(TranslateText translateText, PollySpeechSynthesizer synthesizer, WebSocketStreamer streamer,
+                        CallMetrics metrics) {
+        this(translateText, synthesizer, streamer, metrics, EnvConfig.getInt("PIPELINE_MAX_IN_FLIGHT", DEFAULT_MAX_IN_FLIGHT));
+    }
+
+    TranslationPipeline(TranslateText translateText, PollySpeechSynthesizer synthesizer, WebSocketStreamer streamer,
+                        CallMetrics metrics, int maxInFlight) {
+        this(translateText, synthesizer, streamer, metrics, maxInFlight,
+                EnvConfig.getInt("PIPELINE_TRANSLATE_CONCURRENCY", maxInFlight),
+                EnvConfig.getInt("PIPELINE_SYNTHESIZE_CONCURRENCY", maxInFlight));
+    }
+
+    TranslationPipeline(TranslateText translateText, PollySpeechSynthesizer synthesizer, WebSocketStreamer streamer,
+                        CallMetrics metrics, int maxInFlight, int translateConcurrency, int synthesizeConcurrency) {
+        this.translateText = translateText;
+        this.synthesizer = synthesizer;
+        this.streamer = streamer;
+        this.metrics = metrics;
+        this.deliverExecutor = ExecutorFactory.newSingleThreadExecutor("pipeline-deliver");
+        this.deliverContext = LogContext.propagate(deliverExecutor);
+        this.inlineContext = LogContext.propagate(Runnable::run);
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.translateLimit = new StageLimit(translateConcurrency);
+        this.synthesizeLimit = new StageLimit(synthesizeConcurrency);
+    }
+
+    /**
+     * Queue a final transcript for translation, synthesis and delivery.
+     *
+     * @param transcript final transcript text
+     * @return the sequence number assigned to the utterance, or 0 if it was added to the backlog
+     */
+    public long submit(String transcript) {
+        return submit(Collections.singletonList(transcript));
+    }
+
+    /**
+     * Queue the final segments of one Transcribe event as a single utterance. The segments are translated in one
+     * request and spoken as one clip.
+     *
+     * @param segments final transcript segments, in spoken order
+     * @return the sequence number assigned to the utterance, or 0 if it was added to the backlog
+     */
+    public long submit(List<String> segments) {
+        return submit(segments, 0);
+    }
+
+    /**
+     * @param audioEndMillis estimated wall-clock time at which the utterance's audio ended, or 0 if unknown
+     */
+    public synchronized long submit(List<String> segments, long audioEndMillis) {
+        if (closed != null) {
+            // The delivery executor may already be gone
+            droppedSegments.addAndGet(segments.size());
+            logger.warn("Pipeline is closed, dropped {} transcript segments", segments.size());
+            return 0;
+        }
+        if (backlog.isEmpty() && inFlight.tryAcquire()) {
+            return start(segments, audioEndMillis, true);
+        }
+
+        backlog.addAll(segments);
+        backlogAudioEndMillis = audioEndMillis;
+        while (backlog.size() > MAX_BACKLOG_SEGMENTS) {
+            backlog.remove(0);
+            droppedSegments.incrementAndGet();
+            logger.warn("Pipeline backlog full, dropped the oldest transcript segment");
+        }
+        logger.debug("Pipeline full, {} segments waiting", backlog.size());
+        return 0;
+    }
+
+    /**
+     * Submit the backlog as one utterance if a slot is free.
+     */
+    private synchronized void submitBacklog() {
+        if (!backlog.isEmpty() && closed == null && inFlight.tryAcquire()) {
+            start(takeBacklog(), backlogAudioEndMillis, true);
+        }
+    }
+
+    private List<String> takeBacklog() {
+        List<String> segments = new ArrayList<>(backlog);
+        backlog.clear();
+        return segments;
+    }
+
+    /**
+     * Must be called while holding this pipeline's lock.
+     *
+     * @param holdsSlot whether the caller took a slot that is to be released after delivery
+     */
+    private long start(List<String> segments, long audioEndMillis, boolean holdsSlot) {
+        Utterance utterance = new Utterance(sequence.incrementAndGet(), segments);
+        utterance.setTimestamp(Utterance.Stage.AUDIO_END, audioEndMillis);
+        utterance.mark(Utterance.Stage.SUBMITTED);
+
+        CompletableFuture<Utterance> synthesized = translate(utterance)
+                .thenCompose(this::synthesize)
+                .handleAsync((u, e) -> {
+                    if (e != null) {
+                        logger.error("Dropping utterance {} after failure", utterance.getSequenceNumber(), e);
+                        return null;
+                    }
+                    return u;
+                }, inlineContext);
+
+        CompletableFuture<Void> delivery =
+                lastDelivery.thenAcceptBothAsync(synthesized, (ignored, u) -> deliver(u), deliverContext);
+        lastDelivery = delivery;
+        delivery.whenComplete((r, e) -> {
+            if (holdsSlot) {
+                inFlight.release();
+            }
+            submitBacklog();
+        });
+
+        return utterance.getSequenceNumber();
+    }
+
+    private CompletableFuture<Utterance> translate(Utterance utterance) {
+        return translateLimit.run(() -> translateText.translateSegmentsAsync(utterance.getSegments())).thenApplyAsync(translation -> {
+            utterance.setTranslation(translation);
+            utterance.mark(Utterance.Stage.TRANSLATED);
+            logger.debug("Translated text [{}]: '{}'", utterance.getSequenceNumber(), translation);
+            return utterance;
+        }, inlineContext);
+    }
+
+    private CompletableFuture<Utterance> synthesize(Utterance utterance) {
+        if (isCancelled(utterance)) {
+            return CompletableFuture.completedFuture(utterance);
+        }
+        CompletableFuture<SynthesizedSpeech> speech = synthesizeLimit.run(() -> chunkedDelivery
+                ? synthesizer.synthesizeStreamingAsync(utterance.getTranslation())
+                : synthesizer.synthesizeAsync(utterance.getTranslation()));
+        return speech.thenApplyAsync(synthesized -> {
+            utterance.setSpeech(synthesized);
+            utterance.mark(Utterance.Stage.SYNTHESIZED);
+            logger.debug("Finished synthesizing speech [{}]{}", utterance.getSequenceNumber(),
+                    synthesized.isCached() ? " from cache" : "");
+            return utterance;
+        }, inlineContext);
+    }
+
+    private void deliver(Utterance utterance) {
+        if (utterance == null) {
+            return;
+        }
+        if (isCancelled(utterance)) {
+            cancelledUtterances.incrementAndGet();
+            logger.debug("Dropped cancelled utterance [{}]", utterance.getSequenceNumber());
+            closeQuietly(utterance.getSpeech());
+            return;
+        }
+        try {
+            boolean posted = chunkedDelivery
+                    ? streamer.streamAudioFrames(utterance.getSequenceNumber(), utterance.getSpeech())
+                    : streamer.streamAudioToConnections(utterance.getSpeech());
+            if (!posted) {
+                // Already logged by the streamer; a failed post has no delivery latency
+                metrics.recordFailedDelivery();
+                return;
+            }
+            utterance.mark(Utterance.Stage.POSTED);
+            metrics.recordUtterance(utterance);
+            logger.debug("Finished streaming to socket [{}]", utterance.getSequenceNumber());
+        } catch (Exception e) {
+            // Never break the delivery chain; later utterances must still go out
+            metrics.recordFailedDelivery();
+            logger.error("Could not deliver utterance {}", utterance.getSequenceNumber(), e);
+        }
+    }
+
+    /**
+     * Drop every utterance submitted so far that has not been posted yet. An utterance whose audio is being posted
+     * right now is finished.
+     */
+    public void cancelPending() {
+        long last = sequence.get();
+        cancelledThrough.accumulateAndGet(last, Math::max);
+    }
+
+    public long getCancelledUtterances() {
+        return cancelledUtterances.get();
+    }
+
+    public long getDroppedSegments() {
+        return droppedSegments.get();
+    }
+
+    private boolean isCancelled(Utterance utterance) {
+        return utterance.getSequenceNumber() <= cancelledThrough.get();
+    }
+
+    private static void closeQuietly(SynthesizedSpeech speech) {
+        if (speech == null || speech.getAudioStream() == null) {
+            return;
+        }
+        try {
+            // Releases the Polly connection of a streaming clip that will never be read
+            speech.getAudioStream().close();
+        } catch (IOException e) {
+            // Nothing to do; the clip is discarded anyway
+        }
+    }
+
+    /**
+     * Once queued utterances are delivered, or after {@value #CLOSE_TIMEOUT_SECONDS} seconds, write the call's
+     * latency and connection lookup metrics and stop the delivery executor. Does not block, so it is safe to call
+     * from SDK callbacks.
+     *
+     * @return completes when the pipeline is closed; the same future on every call
+     */
+    public synchronized CompletableFuture<Void> closeAsync() {
+        if (closed == null) {
+            if (!backlog.isEmpty()) {
+                // No slot may free up in time; the rest of the call goes out without one
+                start(takeBacklog(), backlogAudioEndMillis, false);
+            }
+            closed = lastDelivery.copy()
+                    .orTimeout(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .handleAsync((r, e) -> {
+                        if (e != null) {
+                            logger.warn("Pipeline did not drain before close: {}", e.toString());
+                        }
+                        deliverExecutor.shutdownNow();
+                        metrics.recordConnectionLookups(streamer.getConnectionLookups(),
+                                streamer.getConnectionRefreshes(), streamer.getAverageConnectionLookupMillis());
+                        metrics.flush();
+                        return null;
+                    }, inlineContext);
+        }
+        return closed;
+    }
+
+    /**
+     * Write the latency metrics recorded so far without closing, for a call that is abandoned before its stream
+     * ends.
+     */
+    public void flushMetrics() {
+        metrics.flush();
+    }
+
+    /**
+     * Close and wait for it; only for callers that may block.
+     */
+    @Override
+    public void close() {
+        closeAsync().join();
+    }
+
+    /**
+     * Caps the requests one stage has in flight without blocking: a request over the cap is queued and started when
+     * an earlier one completes, on the thread that completed it.
+     */
+    private static final class StageLimit {
+        private final int limit;
+        // Guarded by this
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+        private int running = 0;
+
+        StageLimit(int limit) {
+            this.limit = Math.max(1, limit);
+        }
+
+        <T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> request) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable start = () -> {
+                CompletableFuture<T> started;
+                try {
+                    started = request.get();
+                } catch (RuntimeException e) {
+                    started = CompletableFuture.failedFuture(e);
+                }
+                started.whenComplete((r, e) -> {
+                    startNext();
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(r);
+                    }
+                });
+            };
+
+            boolean startNow;
+            synchronized (this) {
+                startNow = running < limit;
+                if (startNow) {
+                    running++;
+                } else {
+                    waiting.addLast(start);
+                }
+            }
+            if (startNow) {
+                start.run();
+            }
+            return result;
+        }
+
+        private void startNext() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            // The completed request's slot passes straight to the next one
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.connectverse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Long-running alternative to {@link KDSTranslateLambda} that translates many calls in one process.
+ *
+ * <p>Sessions are started with POST /sessions, whose body is the same TranscriptionRequest JSON the Lambda receives.
+ * Every session shares the clients from {@link AwsClients} and a single Transcribe client, so a new call costs no
+ * cold start and no new connections. Sessions are not bound to the 15 minute Lambda limit; a session ends when its
+ * Transcribe stream ends, which Transcribe does on its own once the call's audio stops.</p>
+ *
+ * <p>Session setup (language lookup and stream start) runs on a bounded pool of WORKER_START_CONCURRENCY threads.
+ * The running sessions need no thread of their own; their work happens on the SDK event loop and the per-session
+ * pipeline threads. At most WORKER_MAX_SESSIONS sessions run at once; further requests are answered with 503 so the
+ * caller can try another worker. A second request for a leg that is already running is answered with 409. GET /health
+ * reports the number of active sessions.</p>
+ *
+ * <p>Sessions with the same contact ID are the customer and agent legs of one call and are grouped in a
+ * {@link CallSession}, which looks up the call's languages once and cancels speech queued for a party who has started
+ * talking again.</p>
+ */
+public class TranslationWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranslationWorker.class);
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_MAX_SESSIONS = 100;
+    private static final int DEFAULT_START_CONCURRENCY = 4;
+
+    private final TranscribeStreamingRetryClient client;
+    private final ExecutorService startExecutor;
+    private final Semaphore sessionSlots;
+    private final Map<String, CompletableFuture<Void>> sessions = new ConcurrentHashMap<>();
+    private final Map<String, CallSession> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Thrown when a session is started for a contact and communicator that already have a running session.
+     */
+    static final class DuplicateSessionException extends IllegalStateException {
+        DuplicateSessionException(String sessionId) {
+            super("Session " + sessionId + " is already running");
+        }
+    }
+
+    public TranslationWorker(int maxSessions, int startConcurrency) {
+        this.client = new TranscribeStreamingRetryClient(AwsClients.transcribeStreaming(), false);
+        this.startExecutor = ExecutorFactory.newFixedThreadPool("worker-session-start", startConcurrency);
+        this.sessionSlots = new Semaphore(Math.max(1, maxSessions));
+    }
+
+    public static void main(String[] args) throws IOException {
+        TranslationWorker worker = new TranslationWorker(
+                EnvConfig.getInt("WORKER_MAX_SESSIONS", DEFAULT_MAX_SESSIONS),
+                EnvConfig.getInt("WORKER_START_CONCURRENCY", DEFAULT_START_CONCURRENCY));
+
+        int port = EnvConfig.getInt("WORKER_PORT", DEFAULT_PORT);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/sessions", worker::handleSessions);
+        server.createContext("/health", worker::handleHealth);
+        server.setExecutor(ExecutorFactory.newFixedThreadPool("worker-http", 2));
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            worker.close();
+        }, "worker-shutdown"));
+
+        logger.info("Translation worker listening on port {}", port);
+    }
+
+    /**
+     * Start translating a call.
+     *
+     * @param request request as the Lambda would receive it
+     * @return the session ID, or null if the worker is already running its maximum number of sessions or is shutting
+     * down
+     * @throws DuplicateSessionException if the same leg of the same contact is already running
+     */
+    public String startSession(TranscriptionRequest request) {
+        String contactId = request.getConnectContactId();
+        String sessionId = contactId != null
+                ? contactId + "-" + request.getCommunicator()
+                : UUID.randomUUID().toString();
+
+        CompletableFuture<Void> session = new CompletableFuture<>();
+        if (sessions.putIfAbsent(sessionId, session) != null) {
+            throw new DuplicateSessionException(sessionId);
+        }
+        if (!sessionSlots.tryAcquire()) {
+            sessions.remove(sessionId, session);
+            return null;
+        }
+        CallSession call = joinCall(contactId);
+
+        CompletableFuture<Void> started;
+        try {
+            // The session's pipeline is created on the start thread and takes its contact ID for logging from there
+            started = CompletableFuture
+                    .supplyAsync(() -> {
+                        try (LogContext.Scope ignored = LogContext.forContact(contactId)) {
+                            logger.info("Starting session {}: {}", sessionId, request);
+                            if (call != null) {
+                                call.enrich(request);
+                            } else {
+                                KDSTranslateLambda.enrichTranscriptionRequestion(request);
+                            }
+                            return KDSTranslateLambda.startSession(client, request, call);
+                        }
+                    }, startExecutor)
+                    .thenCompose(Function.identity());
+        } catch (RejectedExecutionException e) {
+            // Closed; nothing was started, so give everything back
+            sessions.remove(sessionId, session);
+            leaveCall(contactId);
+            sessionSlots.release();
+            logger.warn("Not starting session {}: worker is shutting down", sessionId);
+            return null;
+        }
+
+        session.whenComplete((r, e) -> {
+            sessions.remove(sessionId, session);
+            leaveCall(contactId);
+            sessionSlots.release();
+            if (e != null) {
+                logger.error("Session {} failed", sessionId, e);
+            } else {
+                logger.info("Session {} completed", sessionId);
+            }
+        });
+        started.whenComplete((r, e) -> {
+            if (e != null) {
+                session.completeExceptionally(e);
+            } else {
+                session.complete(null);
+            }
+        });
+        return sessionId;
+    }
+
+    /**
+     * @return the call session for the contact ID, shared with the call's other leg if that is running here
+     */
+    private CallSession joinCall(String contactId) {
+        if (contactId == null) {
+            return null;
+        }
+        return calls.compute(contactId, (key, call) -> {
+            CallSession joined = call != null ? call : new CallSession(key);
+            joined.activeLegs++;
+            return joined;
+        });
+    }
+
+    private void leaveCall(String contactId) {
+        if (contactId != null) {
+            calls.computeIfPresent(contactId, (key, call) -> --call.activeLegs == 0 ? null : call);
+        }
+    }
+
+    public int getActiveSessions() {
+        return sessions.size();
+    }
+
+    public void close() {
+        logger.info("Stopping worker with {} active sessions", sessions.size());
+        startExecutor.shutdownNow();
+        client.close();
+    }
+
+    private void handleSessions(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, new JSONObject().put("error", "Use POST"));
+            return;
+        }
+
+        TranscriptionRequest request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = parseRequest(new JSONObject(new String(body.readAllBytes(), StandardCharsets.UTF_8)));
+            request.validate();
+        } catch (Exception e) {
+            respond(exchange, 400, new JSONObject().put("error", String.valueOf(e.getMessage())));
+            return;
+        }
+
+        String sessionId;
+        try {
+            sessionId = startSession(request);
+        } catch (DuplicateSessionException e) {
+            respond(exchange, 409, new JSONObject().put("error", e.getMessage()));
+            return;
+        }
+        if (sessionId == null) {
+            respond(exchange, 503, new JSONObject().put("error", "Worker is at capacity or shutting down"));
+        } else {
+            respond(exchange, 202, new JSONObject().put("sessionId", sessionId));
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, new JSONObject().put("activeSessions", getActiveSessions()));
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read the fields the Lambda runtime would map onto TranscriptionRequest.
+     */
+    static TranscriptionRequest parseRequest(JSONObject json) {
+        TranscriptionRequest request = new TranscriptionRequest();
+        request.setStreamARN(json.optString("streamARN", null));
+        request.setInputFileName(json.optString("inputFileName", null));
+        request.setConnectContactId(json.optString("connectContactId", null));
+        request.setReceiver(json.optString("receiver", null));
+        if (json.has("communicator")) {
+            request.setCommunicator(Communicator.valueOf(json.getString("communicator")));
+        }
+        request.setTranscribeLanguageCode(json.optString("transcribeLanguageCode", null));
+        request.setTranslateFromLanguageCode(json.optString("translateFromLanguageCode", null));
+        request.setTranslateToLanguageCode(json.optString("translateToLanguageCode", null));
+        request.setPollyLanguageCode(json.optString("pollyLanguageCode", null));
+        request.setPollyVoiceId(json.optString("pollyVoiceId", null));
+        request.setTranscriptionEnabled(json.optBoolean("transcriptionEnabled", false));
+        if (json.has("saveCallRecording")) {
+            request.setSaveCallRecording(json.getBoolean("saveCallRecording"));
+        }
+        request.setStreamAudioFromCustomer(json.optBoolean("streamAudioFromCustomer", true));
+        request.setStreamAudioToCustomer(json.optBoolean("streamAudioToCustomer", false));
+        return request;
+    }
+}
@@ -0,0 +1,95 @@
+package org.connectverse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A single final transcript travelling through the {@link TranslationPipeline}. The sequence number is assigned
+ * when the transcript is submitted and decides the order in which audio is delivered to the WebSocket.
+ * A transcript may consist of several segments that Transcribe finalized in the same event; they are translated
+ * together and spoken as one clip.
+ */
+class Utterance {
+
+    /**
+     * Points in the life of an utterance, recorded as epoch milliseconds for {@link CallMetrics}.
+     */
+    enum Stage {
+        AUDIO_END,
+        SUBMITTED,
+        TRANSLATED,
+        SYNTHESIZED,
+        POSTED
+    }
+
+    private final long sequenceNumber;
+    private final List<String> segments;
+    private volatile String translation;
+    private volatile SynthesizedSpeech speech;
+    private final AtomicLongArray timestamps = new AtomicLongArray(Stage.values().length);
+
+    Utterance(long sequenceNumber, String transcript) {
+        this(sequenceNumber, Collections.singletonList(transcript));
+    }
+
+    Utterance(long sequenceNumber, List<String> segments) {
+        this.sequenceNumber = sequenceNumber;
+        this.segments = segments;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public String getTranscript() {
+        return String.join(" ", segments);
+    }
+
+    public List<String> getSegments() {
+        return segments;
+    }
+
+    public String getTranslation() {
+        return translation;
+    }
+
+    public void setTranslation(String translation) {
+        this.translation = translation;
+    }
+
+    public SynthesizedSpeech getSpeech() {
+        return speech;
+    }
+
+    public void setSpeech(SynthesizedSpeech speech) {
+        this.speech = speech;
+    }
+
+    /**
+     * Record that the utterance reached a stage now.
+     */
+    public void mark(Stage stage) {
+        setTimestamp(stage, System.currentTimeMillis());
+    }
+
+    public void setTimestamp(Stage stage, long epochMillis) {
+        timestamps.set(stage.ordinal(), epochMillis);
+    }
+
+    /**
+     * @return epoch milliseconds at which the stage was reached, or 0 if it was not recorded
+     */
+    public long getTimestamp(Stage stage) {
+        return timestamps.get(stage.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        return "Utterance{" +
+                "sequenceNumber=" + sequenceNumber +
+                ", segments=" + segments +
+                ", translation='" + translation + '\'' +
+                '}';
+    }
+}
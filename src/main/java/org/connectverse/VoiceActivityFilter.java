@@ -0,0 +1,148 @@
+package org.connectverse;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Drops silent audio before it is sent to Transcribe, using the energy and zero-crossing rate of each chunk of
+ * 16-bit little-endian PCM.
+ *
+ * <p>A chunk is speech when its RMS level reaches AUDIO_VAD_ENERGY_THRESHOLD (default 500 of 32767), or half of that
+ * with a zero-crossing rate of at least AUDIO_VAD_ZCR_PERCENT (default 25), which catches quiet fricatives such as
+ * "s" and "f". After speech, AUDIO_VAD_HANGOVER_MS (default 500 ms) of audio is still sent so word endings and
+ * Transcribe's end-of-utterance detection are not cut off, and the last AUDIO_VAD_PREROLL_MS (default 200 ms) of
+ * silence is sent ahead of the next speech so its first sound is not lost.</p>
+ *
+ * <p>Silence beyond that is not dropped entirely: one chunk is sent for every AUDIO_VAD_KEEPALIVE_MS (default
+ * 1000 ms) of suppressed audio, well inside the 15 seconds after which Transcribe ends a stream without audio.</p>
+ *
+ * <p>Durations are measured in audio, not wall-clock time. Transcribe only sees the audio that was sent, so its
+ * result offsets fall behind the call's clock by the amount of silence dropped.</p>
+ *
+ * <p>Not thread-safe; each subscription owns its own filter.</p>
+ */
+class VoiceActivityFilter {
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final int bytesPerSecond;
+    private final int energyThreshold;
+    private final double zeroCrossingThreshold;
+    private final long hangoverBytes;
+    private final long preRollBytes;
+    private final long keepAliveBytes;
+
+    // Most recent suppressed chunks, sent ahead of the next speech
+    private final Deque<byte[]> preRoll = new ArrayDeque<>();
+    private long preRollFilled = 0;
+    // Silence since the last speech chunk; starts past the hangover so leading silence is suppressed
+    private long silentBytes;
+    // Audio suppressed since the last chunk was sent
+    private long suppressedBytes = 0;
+
+    private long bytesReceived = 0;
+    private long bytesSent = 0;
+
+    static VoiceActivityFilter fromEnvironment(int sampleRateHertz) {
+        return new VoiceActivityFilter(sampleRateHertz,
+                EnvConfig.getInt("AUDIO_VAD_ENERGY_THRESHOLD", 500),
+                EnvConfig.getInt("AUDIO_VAD_ZCR_PERCENT", 25),
+                EnvConfig.getInt("AUDIO_VAD_HANGOVER_MS", 500),
+                EnvConfig.getInt("AUDIO_VAD_PREROLL_MS", 200),
+                EnvConfig.getInt("AUDIO_VAD_KEEPALIVE_MS", 1000));
+    }
+
+    VoiceActivityFilter(int sampleRateHertz, int energyThreshold, int zeroCrossingPercent,
+                        int hangoverMillis, int preRollMillis, int keepAliveMillis) {
+        this.bytesPerSecond = sampleRateHertz * BYTES_PER_SAMPLE;
+        this.energyThreshold = energyThreshold;
+        this.zeroCrossingThreshold = zeroCrossingPercent / 100.0;
+        this.hangoverBytes = millisToBytes(hangoverMillis);
+        this.preRollBytes = millisToBytes(preRollMillis);
+        this.keepAliveBytes = millisToBytes(keepAliveMillis);
+        this.silentBytes = hangoverBytes + 1;
+    }
+
+    /**
+     * Pass the chunk on if it is speech or close to speech, hold or drop it otherwise.
+     */
+    void accept(byte[] audio, Consumer<byte[]> out) {
+        bytesReceived += audio.length;
+
+        if (isSpeech(audio)) {
+            silentBytes = 0;
+            while (!preRoll.isEmpty()) {
+                send(preRoll.removeFirst(), out);
+            }
+            preRollFilled = 0;
+            send(audio, out);
+            return;
+        }
+
+        silentBytes += audio.length;
+        if (silentBytes <= hangoverBytes) {
+            send(audio, out);
+            return;
+        }
+
+        suppressedBytes += audio.length;
+        if (suppressedBytes >= keepAliveBytes) {
+            // Anything held is older than this chunk and must not follow it
+            preRoll.clear();
+            preRollFilled = 0;
+            send(audio, out);
+            return;
+        }
+
+        preRoll.addLast(audio);
+        preRollFilled += audio.length;
+        while (preRollFilled > preRollBytes && !preRoll.isEmpty()) {
+            preRollFilled -= preRoll.removeFirst().length;
+        }
+    }
+
+    private void send(byte[] audio, Consumer<byte[]> out) {
+        bytesSent += audio.length;
+        suppressedBytes = 0;
+        out.accept(audio);
+    }
+
+    boolean isSpeech(byte[] audio) {
+        int samples = audio.length / BYTES_PER_SAMPLE;
+        if (samples == 0) {
+            return false;
+        }
+
+        double sumOfSquares = 0;
+        int crossings = 0;
+        int previous = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = (short) ((audio[2 * i] & 0xFF) | (audio[2 * i + 1] << 8));
+            sumOfSquares += (double) sample * sample;
+            if (i > 0 && (sample >= 0) != (previous >= 0)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+
+        double rms = Math.sqrt(sumOfSquares / samples);
+        if (rms >= energyThreshold) {
+            return true;
+        }
+        double zeroCrossingRate = samples > 1 ? (double) crossings / (samples - 1) : 0;
+        return rms >= energyThreshold / 2.0 && zeroCrossingRate >= zeroCrossingThreshold;
+    }
+
+    double getSecondsReceived() {
+        return (double) bytesReceived / bytesPerSecond;
+    }
+
+    double getSecondsSent() {
+        return (double) bytesSent / bytesPerSecond;
+    }
+
+    private long millisToBytes(int millis) {
+        return (long) bytesPerSecond * millis / 1000;
+    }
+}
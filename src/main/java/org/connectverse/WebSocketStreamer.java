@@ -1,11 +1,11 @@
 package org.connectverse;
 
-import com.amazonaws.services.polly.model.SynthesizeSpeechResult;
-import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException;
 import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
@@ -13,71 +13,254 @@ import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class WebSocketStreamer {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketStreamer.class);
     private static final int MAX_RETRIES = 3;
-    private static final long INITIAL_BACKOFF = 1000;
+    private static final long DEFAULT_INITIAL_BACKOFF = 200;
+    private static final int DEFAULT_FRAME_BYTES = 4096;
 
     public static final String COMMUNICATOR = "communicator";
     public static final String AGENT_RECEIVER = "AGENT_RECEIVER";
+    private static final byte[] AUDIO_PAYLOAD_PREFIX = "{\"audio_data\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AUDIO_PAYLOAD_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
     private final ApiGatewayManagementApiClient apiClient;
-    private final DynamoDbClient dynamoDbClient;
     private final String tableName;
     private final String receiver;
+    private final int frameBytes = Math.max(1, EnvConfig.getInt("AUDIO_FRAME_BYTES", DEFAULT_FRAME_BYTES));
+    private final long initialBackoff = EnvConfig.getLong("CONNECTION_LOOKUP_BACKOFF_MS", DEFAULT_INITIAL_BACKOFF);
+
+    // The receiver's connection stays the same for the whole stream, so it is looked up once and
+    // refreshed only when API Gateway reports it gone
+    private volatile String connectionId;
+    // A lock rather than synchronized: the lookup blocks on DynamoDB, which would pin a virtual thread's carrier
+    private final ReentrantLock connectionLock = new ReentrantLock();
+    private final AtomicLong connectionLookups = new AtomicLong();
+    private final AtomicLong connectionRefreshes = new AtomicLong();
+    private final AtomicLong connectionLookupNanos = new AtomicLong();
 
     public WebSocketStreamer(String apiGatewayEndpointUrl, String tableName, String receiver) {
-        this.apiClient = ApiGatewayManagementApiClient.builder()
-                .endpointOverride(URI.create(apiGatewayEndpointUrl))
-                .build();
-        this.dynamoDbClient = DynamoDbClient.create();
+        this(AwsClients.apiGatewayManagement(apiGatewayEndpointUrl), tableName, receiver);
+    }
+
+    WebSocketStreamer(ApiGatewayManagementApiClient apiClient, String tableName, String receiver) {
+        this.apiClient = apiClient;
         this.tableName = tableName;
         this.receiver = receiver;
     }
 
-    public void streamAudioToConnections(SynthesizeSpeechResult speechResult) {
-        String connectionId = getConnectionId();
+    /**
+     * Post already encoded speech. The message is assembled directly from the Base64 bytes, which never need JSON
+     * escaping, so cached audio goes out without being decoded, re-encoded or copied into a String.
+     *
+     * @return false if the message could not be posted
+     */
+    public boolean streamAudioToConnections(SynthesizedSpeech speech) {
+        try {
+            post(buildAudioPayload(speech.getEncodedAudio()));
+            return true;
+        } catch (Exception e) {
+            logger.error("Error posting to WebSocket connection {}: {}", connectionId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Post speech as a sequence of frames so the listener can start playing before synthesis has finished.
+     * Each message is {"utterance":n,"frame":i,"last":true|false,"audio_data":"..."}, where audio_data is the
+     * Base64 encoding of the next slice of the MP3 clip. The client decodes the frames of an utterance in frame
+     * order and appends them; the frame with "last":true (possibly with empty audio_data) ends the clip.
+     *
+     * @param utteranceSequence sequence number of the utterance, used by the client to group frames
+     * @param speech            buffered or streaming speech
+     * @return false if any frame could not be posted; the frames after it are not sent
+     */
+    public boolean streamAudioFrames(long utteranceSequence, SynthesizedSpeech speech) {
+        try {
+            if (speech.isStreaming()) {
+                postFramesFromStream(utteranceSequence, speech);
+            } else {
+                postEncodedFrames(utteranceSequence, speech.getEncodedAudio());
+            }
+            return true;
+        } catch (Exception e) {
+            logger.error("Error posting audio frames for utterance {}: {}", utteranceSequence, e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(speech.getAudioStream());
+        }
+    }
+
+    private void postFramesFromStream(long utteranceSequence, SynthesizedSpeech speech) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        long cacheLimit = speech.getCacheLimitBytes();
+        ByteArrayOutputStream cacheBuffer = cacheLimit > 0 ? new ByteArrayOutputStream() : null;
+        // Whole Base64 quanta, so only the last frame is padded and the frames concatenate into valid Base64
+        byte[] raw = new byte[Math.max(3, frameBytes / 3 * 3)];
+        InputStream audioStream = speech.getAudioStream();
 
-        System.out.println("Posting to connection: " + connectionId);
-        try (InputStream audioStream = speechResult.getAudioStream()) {
-            String audio = encodeToBase64(audioStream);
+        int frame = 0;
+        boolean last = false;
+        while (!last) {
+            // readNBytes only comes back short at the end of the stream, which tells us this is the final frame
+            int read = audioStream.readNBytes(raw, 0, raw.length);
+            last = read < raw.length;
 
-            JSONObject json = new JSONObject();
-            json.put("audio_data", audio);
-            String jsonData = json.toString();
+            ByteBuffer encoded = encoder.encode(ByteBuffer.wrap(raw, 0, read));
+            if (cacheBuffer != null) {
+                if (cacheBuffer.size() + encoded.remaining() <= cacheLimit) {
+                    cacheBuffer.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+                } else {
+                    cacheBuffer = null;
+                }
+            }
+            post(buildFramePayload(utteranceSequence, frame++, last, encoded));
+        }
 
-            // Convert String data to SdkBytes
-            SdkBytes dataBytes = SdkBytes.fromUtf8String(jsonData);
-            PostToConnectionRequest postRequest = PostToConnectionRequest.builder()
-                    .connectionId(connectionId)
-                    .data(dataBytes)
-                    .build();
-            apiClient.postToConnection(postRequest);
-        } catch (Exception e) {
-            System.err.println("Error posting to WebSocket connection " + connectionId + ": " + e.getMessage());
-            // Optionally handle connection cleanup if the connection is gone
+        if (cacheBuffer != null) {
+            speech.writeToCache(cacheBuffer.toByteArray());
         }
     }
 
-    private String getConnectionId() {
-        DynamoDBHelper dynamoDBHelper = new DynamoDBHelper();
+    private void postEncodedFrames(long utteranceSequence, ByteBuffer encodedAudio) {
+        // Slices must be whole Base64 quanta so that every frame decodes on its own
+        int frameLength = Math.max(4, frameBytes / 3 * 4);
+        int frame = 0;
+        do {
+            ByteBuffer slice = encodedAudio.duplicate();
+            slice.limit(slice.position() + Math.min(frameLength, encodedAudio.remaining()));
+            encodedAudio.position(slice.limit());
+            post(buildFramePayload(utteranceSequence, frame++, !encodedAudio.hasRemaining(), slice));
+        } while (encodedAudio.hasRemaining());
+    }
 
+    /**
+     * Post to the receiver's cached connection. If API Gateway says the connection is gone the receiver has
+     * reconnected, so the connection ID is looked up again and the message is sent once more.
+     */
+    private void post(byte[] payload) {
+        String current = getConnectionId();
         try {
-            String connectionId = retryQuery(dynamoDBHelper, tableName, receiver);
-            System.out.println("Got connection ID to stream translated audio to: " + connectionId);
-            return connectionId;
-        } catch (Exception e) {
-            System.err.println("Failed to retrieve connection ID after retries: " + e.getMessage());
+            postToConnection(current, payload);
+        } catch (GoneException e) {
+            invalidateConnectionId(current);
+            postToConnection(getConnectionId(), payload);
+        }
+    }
+
+    private void postToConnection(String connectionId, byte[] payload) {
+        PostToConnectionRequest postRequest = PostToConnectionRequest.builder()
+                .connectionId(connectionId)
+                .data(SdkBytes.fromByteArrayUnsafe(payload))
+                .build();
+        apiClient.postToConnection(postRequest);
+    }
+
+    /**
+     * Wrap Base64 audio as {"audio_data":"..."}.
+     */
+    static byte[] buildAudioPayload(ByteBuffer encodedAudio) {
+        return wrapAudio(AUDIO_PAYLOAD_PREFIX, encodedAudio);
+    }
+
+    static byte[] buildFramePayload(long utteranceSequence, int frame, boolean last, ByteBuffer encodedAudio) {
+        String header = "{\"utterance\":" + utteranceSequence + ",\"frame\":" + frame + ",\"last\":" + last + ",\"audio_data\":\"";
+        return wrapAudio(header.getBytes(StandardCharsets.US_ASCII), encodedAudio);
+    }
+
+    private static byte[] wrapAudio(byte[] prefix, ByteBuffer encodedAudio) {
+        int audioLength = encodedAudio.remaining();
+        byte[] payload = new byte[prefix.length + audioLength + AUDIO_PAYLOAD_SUFFIX.length];
+        System.arraycopy(prefix, 0, payload, 0, prefix.length);
+        encodedAudio.get(payload, prefix.length, audioLength);
+        System.arraycopy(AUDIO_PAYLOAD_SUFFIX, 0, payload, prefix.length + audioLength, AUDIO_PAYLOAD_SUFFIX.length);
+        return payload;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // Nothing useful to do; the clip has already been delivered or abandoned
+        }
+    }
+
+    String getConnectionId() {
+        String current = connectionId;
+        if (current != null) {
+            return current;
+        }
+
+        connectionLock.lock();
+        try {
+            if (connectionId != null) {
+                return connectionId;
+            }
+
+            DynamoDBHelper dynamoDBHelper = new DynamoDBHelper();
+            long start = System.nanoTime();
+            try {
+                connectionId = retryQuery(dynamoDBHelper, tableName, receiver, initialBackoff);
+                logger.info("Got connection ID to stream translated audio to: {}", connectionId);
+                return connectionId;
+            } catch (Exception e) {
+                logger.error("Failed to retrieve connection ID after retries: {}", e.getMessage());
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                connectionLookups.incrementAndGet();
+                connectionLookupNanos.addAndGet(elapsed);
+                logger.debug("Connection ID lookup took {} ms", elapsed / 1_000_000);
+                dynamoDBHelper.close();
+            }
         } finally {
-            dynamoDBHelper.close();
+            connectionLock.unlock();
         }
 
         throw new RuntimeException("FATAL: Could not get connection ID");
     }
 
-    private static String retryQuery(DynamoDBHelper dynamoDBHelper, String tableName, String receiver) throws Exception {
+    /**
+     * Forget the cached connection ID, unless another thread has already replaced it.
+     *
+     * @param staleConnectionId the connection ID that API Gateway rejected
+     */
+    void invalidateConnectionId(String staleConnectionId) {
+        connectionLock.lock();
+        try {
+            if (staleConnectionId != null && staleConnectionId.equals(connectionId)) {
+                connectionId = null;
+                connectionRefreshes.incrementAndGet();
+                logger.info("Connection {} is gone, refreshing connection ID", staleConnectionId);
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    public long getConnectionLookups() {
+        return connectionLookups.get();
+    }
+
+    public long getConnectionRefreshes() {
+        return connectionRefreshes.get();
+    }
+
+    public double getAverageConnectionLookupMillis() {
+        long lookups = connectionLookups.get();
+        return lookups == 0 ? 0 : connectionLookupNanos.get() / 1_000_000.0 / lookups;
+    }
+
+    private static String retryQuery(DynamoDBHelper dynamoDBHelper, String tableName, String receiver, long initialBackoff) throws Exception {
         int retries = 0;
         while (true) {
             try {
@@ -91,8 +274,8 @@ public class WebSocketStreamer {
                 if (++retries > MAX_RETRIES) {
                     throw new Exception("Maximum retry limit reached", e);
                 }
-                System.err.println("Query failed, retrying... Attempt: " + retries);
-                Thread.sleep((long) (INITIAL_BACKOFF * Math.pow(2, retries - 1)));
+                logger.warn("Query failed, retrying... Attempt: {}", retries);
+                Thread.sleep((long) (initialBackoff * Math.pow(2, retries - 1)));
             }
         }
     }
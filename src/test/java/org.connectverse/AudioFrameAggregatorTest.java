@@ -0,0 +1,75 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AudioFrameAggregatorTest {
+
+    @Test
+    public void coalescesSmallChunksIntoFrames() {
+        // 16 kHz, 10 ms frames = 160 samples = 320 bytes
+        AudioFrameAggregator aggregator = new AudioFrameAggregator(16000, 10, 1000);
+        List<byte[]> frames = new ArrayList<>();
+
+        for (int i = 0; i < 7; i++) {
+            aggregator.append(new byte[100], frames::add);
+        }
+
+        assertEquals(320, aggregator.getFrameBytes());
+        assertEquals(2, frames.size());
+        assertEquals(320, frames.get(0).length);
+        assertEquals(320, frames.get(1).length);
+    }
+
+    @Test
+    public void keepsAudioInOrderAcrossFrames() {
+        AudioFrameAggregator aggregator = new AudioFrameAggregator(1000, 2, 1000);
+        List<byte[]> frames = new ArrayList<>();
+
+        aggregator.append(new byte[]{1, 2, 3}, frames::add);
+        aggregator.append(new byte[]{4, 5, 6, 7, 8}, frames::add);
+
+        assertEquals(2, frames.size());
+        assertEquals(1, frames.get(0)[0]);
+        assertEquals(4, frames.get(0)[3]);
+        assertEquals(5, frames.get(1)[0]);
+        assertEquals(8, frames.get(1)[3]);
+    }
+
+    @Test
+    public void passesExactFramesThroughWithoutCopying() {
+        AudioFrameAggregator aggregator = new AudioFrameAggregator(16000, 10, 1000);
+        List<byte[]> frames = new ArrayList<>();
+        byte[] exact = new byte[320];
+
+        aggregator.append(exact, frames::add);
+
+        assertSame(exact, frames.get(0));
+    }
+
+    @Test
+    public void flushesPartialFrameAfterMaxWait() {
+        AtomicLong now = new AtomicLong(0);
+        AudioFrameAggregator aggregator = new AudioFrameAggregator(16000, 100, 50, now::get);
+        List<byte[]> frames = new ArrayList<>();
+
+        aggregator.append(new byte[64], frames::add);
+        now.set(49_000_000L);
+        assertFalse(aggregator.flushIfStale(frames::add));
+        assertEquals(1_000_000L, aggregator.nanosUntilFlush());
+
+        now.set(50_000_000L);
+        assertTrue(aggregator.flushIfStale(frames::add));
+        assertEquals(1, frames.size());
+        assertEquals(64, frames.get(0).length);
+        assertEquals(Long.MAX_VALUE, aggregator.nanosUntilFlush());
+    }
+}
@@ -0,0 +1,109 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AudioRecordDecoderTest {
+
+    private static byte[] audio(int length, int seed) {
+        byte[] audio = new byte[length];
+        for (int i = 0; i < length; i++) {
+            audio[i] = (byte) (seed + i * 37);
+        }
+        return audio;
+    }
+
+    private static SdkBytes padded(byte[] audio) {
+        return SdkBytes.fromByteArray(Base64.getEncoder().encode(audio));
+    }
+
+    private static SdkBytes unpadded(byte[] audio) {
+        return SdkBytes.fromByteArray(Base64.getEncoder().withoutPadding().encode(audio));
+    }
+
+    private static byte[] concat(List<byte[]> chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunks.forEach(out::writeBytes);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void decodedLengthAcceptsPaddedAndUnpaddedInput() {
+        for (int length = 0; length <= 10; length++) {
+            byte[] audio = audio(length, length);
+            assertEquals(length, AudioRecordDecoder.decodedLength(padded(audio).asByteArray()), "padded " + length);
+            assertEquals(length, AudioRecordDecoder.decodedLength(unpadded(audio).asByteArray()), "unpadded " + length);
+        }
+        assertEquals(1, AudioRecordDecoder.decodedLength("AQ==".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(2, AudioRecordDecoder.decodedLength("AQI=".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void perRecordPassesEachRecordOnAsOneExactChunk() {
+        AudioRecordDecoder decoder = new AudioRecordDecoder(AudioRecordDecoder.ChunkingPolicy.PER_RECORD, 4, 16000);
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] odd = audio(7, 1);
+        byte[] even = audio(8, 2);
+
+        decoder.decode(padded(odd), chunks::add);
+        decoder.decode(unpadded(even), chunks::add);
+
+        // Larger than the chunk size, still one chunk per record
+        assertEquals(2, chunks.size());
+        assertArrayEquals(odd, chunks.get(0));
+        assertArrayEquals(even, chunks.get(1));
+        assertEquals(2, decoder.getRecordsDecoded());
+        assertEquals(15, decoder.getAudioBytes());
+    }
+
+    @Test
+    public void fixedSizeCutsRecordsIntoChunksOfAtMostTheLimit() {
+        AudioRecordDecoder decoder = new AudioRecordDecoder(AudioRecordDecoder.ChunkingPolicy.FIXED_SIZE, 4, 16000);
+        byte[] first = audio(11, 3);
+        byte[] second = audio(9, 4);
+        byte[] small = audio(3, 5);
+
+        List<byte[]> firstChunks = new ArrayList<>();
+        decoder.decode(padded(first), firstChunks::add);
+        assertEquals(List.of(4, 4, 3), lengths(firstChunks));
+        assertArrayEquals(first, concat(firstChunks));
+
+        // A shorter record after a longer one must not pick up what is left in the scratch buffer
+        List<byte[]> secondChunks = new ArrayList<>();
+        decoder.decode(unpadded(second), secondChunks::add);
+        assertEquals(List.of(4, 4, 1), lengths(secondChunks));
+        assertArrayEquals(second, concat(secondChunks));
+
+        List<byte[]> smallChunks = new ArrayList<>();
+        decoder.decode(padded(small), smallChunks::add);
+        assertEquals(1, smallChunks.size());
+        assertArrayEquals(small, smallChunks.get(0));
+    }
+
+    @Test
+    public void reportsAudioSecondsAtTheSampleRate() {
+        AudioRecordDecoder decoder = new AudioRecordDecoder(AudioRecordDecoder.ChunkingPolicy.PER_RECORD, 1024, 8000);
+
+        decoder.decode(padded(new byte[8000]), chunk -> { });
+
+        assertEquals(0.5, decoder.getAudioSeconds(), 1e-9);
+        assertEquals(16000, decoder.getBytesAllocatedPerAudioSecond(), 1e-9);
+        assertEquals(0, new AudioRecordDecoder(AudioRecordDecoder.ChunkingPolicy.PER_RECORD, 1024, 8000)
+                .getBytesAllocatedPerAudioSecond(), 1e-9);
+    }
+
+    private static List<Integer> lengths(List<byte[]> chunks) {
+        List<Integer> lengths = new ArrayList<>();
+        chunks.forEach(chunk -> lengths.add(chunk.length));
+        return lengths;
+    }
+}
@@ -0,0 +1,50 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AudioStreamResumeStateTest {
+
+    // 1 kHz, 16-bit: 2 bytes per millisecond
+    private static final int SAMPLE_RATE = 1000;
+
+    @Test
+    public void keepsOnlyReplayWindowOfSentAudio() {
+        AudioStreamResumeState state = new AudioStreamResumeState(SAMPLE_RATE, 100);
+        byte[] oldest = new byte[100];
+        byte[] newer = new byte[100];
+        byte[] newest = new byte[100];
+
+        state.recordSent(oldest);
+        state.recordSent(newer);
+        state.recordSent(newest);
+
+        List<byte[]> replay = state.takeReplay();
+        assertEquals(2, replay.size());
+        assertSame(newer, replay.get(0));
+        assertSame(newest, replay.get(1));
+        assertTrue(state.takeReplay().isEmpty());
+    }
+
+    @Test
+    public void alwaysResendsUnsentAudioAfterTheReplayWindow() {
+        AudioStreamResumeState state = new AudioStreamResumeState(SAMPLE_RATE, 0);
+        byte[] sent = new byte[100];
+        byte[] unsent = new byte[1000];
+        byte[] tail = new byte[10];
+
+        state.recordSent(sent);
+        state.recordUnsent(unsent);
+        state.recordUnsent(tail);
+
+        List<byte[]> replay = state.takeReplay();
+        assertEquals(2, replay.size());
+        assertSame(unsent, replay.get(0));
+        assertSame(tail, replay.get(1));
+    }
+}
@@ -0,0 +1,146 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BatchingTranslatorTest {
+
+    private static final long WINDOW_MILLIS = 10_000;
+
+    /**
+     * Answers every Translate request with the given function and records the request texts.
+     */
+    private static class StubBatchingTranslator extends BatchingTranslator {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        private final Function<String, CompletableFuture<String>> answer;
+
+        StubBatchingTranslator(long windowMillis, int maxSegments, int maxBytes,
+                               Function<String, CompletableFuture<String>> answer) {
+            super(null, windowMillis, maxSegments, maxBytes);
+            this.answer = answer;
+        }
+
+        @Override
+        CompletableFuture<String> translateBatch(String sourceLanguage, String targetLanguage, String text) {
+            sent.add(text);
+            return answer.apply(text);
+        }
+    }
+
+    private static CompletableFuture<String> upperCase(String text) {
+        return CompletableFuture.completedFuture(text.toUpperCase());
+    }
+
+    @Test
+    public void sendsFullBatchAtOnceAndSplitsTheTranslation() throws Exception {
+        StubBatchingTranslator translator = new StubBatchingTranslator(WINDOW_MILLIS, 2, 1000,
+                BatchingTranslatorTest::upperCase);
+
+        CompletableFuture<String> first = translator.translate("en", "hi", "hello");
+        CompletableFuture<String> second = translator.translate("en", "hi", "how\nare you");
+
+        assertEquals("HELLO", first.get(1, TimeUnit.SECONDS));
+        assertEquals("HOW ARE YOU", second.get(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("hello\nhow are you"), translator.sent);
+    }
+
+    @Test
+    public void keepsLanguagePairsApartAndFlushesAfterWindow() throws Exception {
+        StubBatchingTranslator translator = new StubBatchingTranslator(20, 16, 1000,
+                BatchingTranslatorTest::upperCase);
+
+        CompletableFuture<String> hindi = translator.translate("en", "hi", "hello");
+        CompletableFuture<String> french = translator.translate("en", "fr", "bye");
+
+        assertEquals("HELLO", hindi.get(5, TimeUnit.SECONDS));
+        assertEquals("BYE", french.get(5, TimeUnit.SECONDS));
+        assertEquals(2, translator.sent.size());
+    }
+
+    @Test
+    public void sendsPendingBatchBeforeItWouldExceedTheByteLimit() throws Exception {
+        // "aaaa" plus separator is 5 bytes, so two of them do not fit in 8
+        StubBatchingTranslator translator = new StubBatchingTranslator(WINDOW_MILLIS, 16, 8,
+                BatchingTranslatorTest::upperCase);
+
+        CompletableFuture<String> first = translator.translate("en", "hi", "aaaa");
+        assertFalse(first.isDone());
+        translator.translate("en", "hi", "bbbb");
+
+        assertEquals("AAAA", first.get(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("aaaa"), translator.sent);
+    }
+
+    @Test
+    public void translatesSeparatelyWhenLinesDoNotMatch() throws Exception {
+        StubBatchingTranslator translator = new StubBatchingTranslator(WINDOW_MILLIS, 2, 1000,
+                text -> text.contains("\n") ? CompletableFuture.completedFuture("merged") : upperCase(text));
+
+        CompletableFuture<String> first = translator.translate("en", "hi", "one");
+        CompletableFuture<String> second = translator.translate("en", "hi", "two");
+
+        assertEquals("ONE", first.get(1, TimeUnit.SECONDS));
+        assertEquals("TWO", second.get(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("one\ntwo", "one", "two"), translator.sent);
+    }
+
+    @Test
+    public void failsEverySegmentOfAFailedBatch() {
+        StubBatchingTranslator translator = new StubBatchingTranslator(WINDOW_MILLIS, 2, 1000,
+                text -> CompletableFuture.failedFuture(new IllegalStateException("throttled")));
+
+        CompletableFuture<String> first = translator.translate("en", "hi", "one");
+        CompletableFuture<String> second = translator.translate("en", "hi", "two");
+
+        assertThrows(ExecutionException.class, () -> first.get(1, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failsOnlyTheSegmentWhoseSeparateRequestFailed() throws Exception {
+        StubBatchingTranslator translator = new StubBatchingTranslator(WINDOW_MILLIS, 2, 1000, text -> {
+            if (text.contains("\n")) {
+                return CompletableFuture.completedFuture("merged");
+            }
+            return text.equals("two")
+                    ? CompletableFuture.failedFuture(new IllegalStateException("throttled"))
+                    : upperCase(text);
+        });
+
+        CompletableFuture<String> first = translator.translate("en", "hi", "one");
+        CompletableFuture<String> second = translator.translate("en", "hi", "two");
+
+        assertEquals("ONE", first.get(1, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void batchedSegmentsAreSplitAndCachedSeparately() {
+        TranslationCache cache = new TranslationCache(10, 60_000);
+        cache.put("en", "hi", "hello", "HELLO");
+        List<String> requests = new ArrayList<>();
+        TranslateText translateText = new TranslateText("en", "hi", null, cache) {
+            @Override
+            CompletableFuture<String> translateUncachedAsync(String sourceLanguage, String targetLanguage, String text) {
+                requests.add(text);
+                return CompletableFuture.completedFuture(text.toUpperCase());
+            }
+        };
+
+        assertEquals("HELLO HOW ARE YOU FINE", translateText.translateSegments(Arrays.asList("hello", "how are you", "fine")));
+        assertEquals(Collections.singletonList("how are you\nfine"), requests);
+        assertEquals("FINE", cache.get("en", "hi", "fine"));
+    }
+}
@@ -0,0 +1,80 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CallMetricsTest {
+
+    private final List<Integer> flushedSamples = new ArrayList<>();
+
+    @AfterEach
+    public void removeListener() {
+        CallMetrics.setFlushListener(null);
+    }
+
+    private CallMetrics metrics(int maxSamples, long flushIntervalMillis, AtomicLong now) {
+        CallMetrics.setFlushListener(m -> flushedSamples.add(m.count(CallMetrics.Stage.END_TO_END)));
+        return new CallMetrics("contact-1", "CUSTOMER", maxSamples, flushIntervalMillis, now::get);
+    }
+
+    private static Utterance delivered(long submitted) {
+        Utterance utterance = new Utterance(1, Collections.singletonList("hello"));
+        utterance.setTimestamp(Utterance.Stage.SUBMITTED, submitted);
+        utterance.setTimestamp(Utterance.Stage.TRANSLATED, submitted + 10);
+        utterance.setTimestamp(Utterance.Stage.SYNTHESIZED, submitted + 20);
+        utterance.setTimestamp(Utterance.Stage.POSTED, submitted + 30);
+        return utterance;
+    }
+
+    @Test
+    public void flushesOnceSampleCapIsReached() {
+        CallMetrics metrics = metrics(3, 60_000, new AtomicLong(0));
+
+        for (int i = 0; i < 7; i++) {
+            metrics.recordUtterance(delivered(i));
+        }
+
+        assertEquals(List.of(3, 3), flushedSamples);
+        assertEquals(1, metrics.count(CallMetrics.Stage.END_TO_END));
+        assertEquals(30, metrics.percentile(CallMetrics.Stage.END_TO_END, 50));
+    }
+
+    @Test
+    public void flushesAfterIntervalAndCountsFailures() {
+        AtomicLong now = new AtomicLong(0);
+        CallMetrics metrics = metrics(100, 1000, now);
+
+        metrics.recordUtterance(delivered(0));
+        metrics.recordFailedDelivery();
+        assertEquals(1, metrics.getFailedDeliveries());
+        assertEquals(List.of(), flushedSamples);
+
+        now.set(1000);
+        metrics.recordFailedDelivery();
+
+        assertEquals(List.of(1), flushedSamples);
+        assertEquals(0, metrics.getFailedDeliveries());
+        assertEquals(0, metrics.count(CallMetrics.Stage.END_TO_END));
+    }
+
+    @Test
+    public void writesConnectionLookupsWithNextFlushOnly() {
+        List<Long> lookups = new ArrayList<>();
+        CallMetrics.setFlushListener(m -> lookups.add(m.getConnectionLookups()));
+        CallMetrics metrics = new CallMetrics("contact-1", "CUSTOMER", 100, 60_000, () -> 0);
+
+        metrics.recordConnectionLookups(3, 1, 12.5);
+        assertEquals(1, metrics.getConnectionRefreshes());
+        metrics.flush();
+        metrics.flush();
+
+        assertEquals(List.of(3L, 0L), lookups);
+    }
+}
@@ -0,0 +1,73 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CallSessionTest {
+
+    /**
+     * Counts cancellations instead of translating anything.
+     */
+    private static class CountingPipeline extends TranslationPipeline {
+        int cancellations = 0;
+
+        CountingPipeline() {
+            super(null, null, null, new CallMetrics(null, null), 1);
+        }
+
+        @Override
+        public void cancelPending() {
+            cancellations++;
+        }
+    }
+
+    @Test
+    public void cancelsOtherLegOncePerUtteranceWithEnoughWords() {
+        CallSession session = new CallSession("contact-1", true, 2);
+        CountingPipeline customerLeg = new CountingPipeline();
+        CountingPipeline agentLeg = new CountingPipeline();
+        session.attach(Communicator.CUSTOMER, customerLeg);
+        session.attach(Communicator.AGENT, agentLeg);
+
+        // Noise and a lone filler word are not a turn
+        session.onTranscript(Communicator.AGENT, "r1", 0);
+        session.onTranscript(Communicator.AGENT, "r1", 1);
+        assertEquals(0, customerLeg.cancellations);
+
+        // Growing partials of the same result count once
+        session.onTranscript(Communicator.AGENT, "r1", 2);
+        session.onTranscript(Communicator.AGENT, "r1", 4);
+        assertEquals(1, customerLeg.cancellations);
+
+        session.onTranscript(Communicator.AGENT, "r2", 3);
+        assertEquals(2, customerLeg.cancellations);
+        assertEquals(0, agentLeg.cancellations);
+
+        session.onTranscript(Communicator.CUSTOMER, "r2", 3);
+        assertEquals(1, agentLeg.cancellations);
+    }
+
+    @Test
+    public void doesNothingWhenBargeInIsOffOrLegIsGone() {
+        CountingPipeline customerLeg = new CountingPipeline();
+
+        CallSession off = new CallSession("contact-1", false, 1);
+        off.attach(Communicator.CUSTOMER, customerLeg);
+        off.onTranscript(Communicator.AGENT, "r1", 5);
+        assertEquals(0, customerLeg.cancellations);
+
+        CallSession on = new CallSession("contact-2", true, 1);
+        on.attach(Communicator.CUSTOMER, customerLeg);
+        on.detach(Communicator.CUSTOMER, customerLeg);
+        on.onTranscript(Communicator.AGENT, "r1", 5);
+        assertEquals(0, customerLeg.cancellations);
+    }
+
+    @Test
+    public void countsWords() {
+        assertEquals(0, StreamTranscriptionBehaviorImpl.countWords(null));
+        assertEquals(0, StreamTranscriptionBehaviorImpl.countWords("  "));
+        assertEquals(3, StreamTranscriptionBehaviorImpl.countWords(" I need  help "));
+    }
+}
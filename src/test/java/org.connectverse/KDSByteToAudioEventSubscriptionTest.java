@@ -0,0 +1,213 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KDSByteToAudioEventSubscriptionTest {
+
+    private static final int SAMPLE_RATE_HERTZ = 16000;
+    // One 100 ms frame at 16 kHz, which the aggregator passes through as it is
+    private static final int FRAME_BYTES = 3200;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Hands out records pushed by the test instead of reading Kinesis.
+     */
+    private static class StubRecordSource extends KinesisAudioRecordSource {
+        private final Queue<ShardRecord> records = new ConcurrentLinkedQueue<>();
+        private volatile Runnable recordListener = () -> { };
+        volatile boolean closed = false;
+        private int sequenceNumber = 0;
+
+        StubRecordSource() {
+            super("stream", null, Collections.emptyMap(), null, null, null);
+        }
+
+        void push(byte[] audio) {
+            records.add(new ShardRecord("shard-0", Record.builder()
+                    .partitionKey("call")
+                    .sequenceNumber(String.valueOf(++sequenceNumber))
+                    .data(SdkBytes.fromByteArray(Base64.getEncoder().encode(audio)))
+                    .build()));
+            recordListener.run();
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void setRecordListener(Runnable recordListener) {
+            this.recordListener = recordListener;
+        }
+
+        @Override
+        public ShardRecord poll() {
+            return records.poll();
+        }
+
+        @Override
+        public Throwable getFailure() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Collects the audio of every event, and notes if onNext is ever entered while another call is still running.
+     */
+    private static class RecordingSubscriber implements Subscriber<AudioStream> {
+        final List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger active = new AtomicInteger();
+        volatile boolean overlapped = false;
+        volatile Subscription subscription;
+        volatile long requestOnNext = 0;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(AudioStream event) {
+            if (active.incrementAndGet() != 1) {
+                overlapped = true;
+            }
+            received.add(((AudioEvent) event).audioChunk().asByteArray());
+            if (requestOnNext > 0) {
+                subscription.request(requestOnNext);
+            }
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private final StubRecordSource source = new StubRecordSource();
+    private final RecordingSubscriber subscriber = new RecordingSubscriber();
+
+    private KDSByteToAudioEventSubscription subscribe() {
+        KDSByteToAudioEventSubscription subscription = new KDSByteToAudioEventSubscription(subscriber, "stream",
+                SAMPLE_RATE_HERTZ, new AudioStreamResumeState(SAMPLE_RATE_HERTZ), new SentAudioClock(SAMPLE_RATE_HERTZ),
+                source);
+        subscriber.onSubscribe(subscription);
+        return subscription;
+    }
+
+    private static byte[] frame(int seed) {
+        byte[] audio = new byte[FRAME_BYTES];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (byte) (seed + i);
+        }
+        return audio;
+    }
+
+    private void await(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscriber.received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, subscriber.received.size());
+    }
+
+    @Test
+    public void emitsNoMoreThanRequested() throws InterruptedException {
+        KDSByteToAudioEventSubscription subscription = subscribe();
+        source.push(frame(1));
+        source.push(frame(2));
+        source.push(frame(3));
+
+        subscription.request(2);
+        await(2);
+        // Give a runaway drain the chance to send the third frame
+        Thread.sleep(200);
+        assertEquals(2, subscriber.received.size());
+
+        subscription.request(1);
+        await(3);
+        assertArrayEquals(frame(1), subscriber.received.get(0));
+        assertArrayEquals(frame(3), subscriber.received.get(2));
+        subscription.cancel();
+    }
+
+    @Test
+    public void requestFromOnNextDoesNotReenter() throws InterruptedException {
+        subscriber.requestOnNext = 1;
+        KDSByteToAudioEventSubscription subscription = subscribe();
+        for (int i = 0; i < 20; i++) {
+            source.push(frame(i));
+        }
+
+        subscription.request(1);
+        await(20);
+
+        assertFalse(subscriber.overlapped);
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(frame(i), subscriber.received.get(i));
+        }
+        subscription.cancel();
+    }
+
+    @Test
+    public void cancelStopsEmissionAndClosesTheSource() throws Exception {
+        KDSByteToAudioEventSubscription subscription = subscribe();
+        source.push(frame(1));
+        subscription.request(1);
+        await(1);
+
+        subscription.cancel();
+        subscription.released().get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertTrue(source.closed);
+
+        source.push(frame(2));
+        subscription.request(5);
+        Thread.sleep(200);
+        assertEquals(1, subscriber.received.size());
+    }
+
+    @Test
+    public void flushTimerSendsTheTailOfAPartFrame() throws InterruptedException {
+        KDSByteToAudioEventSubscription subscription = subscribe();
+        subscription.request(10);
+        byte[] tail = new byte[1000];
+        tail[0] = 7;
+
+        source.push(frame(1));
+        source.push(tail);
+
+        // Nothing else signals the drain; only the flush timer can send the held 1000 bytes
+        await(2);
+        assertArrayEquals(frame(1), subscriber.received.get(0));
+        assertArrayEquals(tail, subscriber.received.get(1));
+        subscription.cancel();
+    }
+}
@@ -0,0 +1,242 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.ChildShard;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardRequest;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponseHandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class KinesisAudioRecordSourceTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Serves scripted GetRecords responses per shard. A shard whose script has run out stays open and empty.
+     */
+    private static class StubKinesisClient implements KinesisClient {
+        final List<ListShardsResponse> pages = new ArrayList<>();
+        final List<ListShardsRequest> listRequests = Collections.synchronizedList(new ArrayList<>());
+        final List<GetShardIteratorRequest> iteratorRequests = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, Deque<GetRecordsResponse>> scripts = new ConcurrentHashMap<>();
+
+        StubKinesisClient(String... shardIds) {
+            List<Shard> shards = new ArrayList<>();
+            for (String shardId : shardIds) {
+                shards.add(Shard.builder().shardId(shardId).build());
+            }
+            pages.add(ListShardsResponse.builder().shards(shards).build());
+        }
+
+        /**
+         * @param closed whether the shard ends after these records
+         */
+        synchronized StubKinesisClient script(String shardId, boolean closed, List<ChildShard> children, Record... records) {
+            scripts.computeIfAbsent(shardId, id -> new ArrayDeque<>()).add(GetRecordsResponse.builder()
+                    .records(records)
+                    .nextShardIterator(closed ? null : shardId)
+                    .childShards(children)
+                    .millisBehindLatest(0L)
+                    .build());
+            return this;
+        }
+
+        @Override
+        public ListShardsResponse listShards(ListShardsRequest request) {
+            listRequests.add(request);
+            // Page N is asked for with the token "page-N"
+            return pages.get(request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken().substring(5)) - 1);
+        }
+
+        @Override
+        public GetShardIteratorResponse getShardIterator(GetShardIteratorRequest request) {
+            iteratorRequests.add(request);
+            return GetShardIteratorResponse.builder().shardIterator(request.shardId()).build();
+        }
+
+        @Override
+        public synchronized GetRecordsResponse getRecords(GetRecordsRequest request) {
+            GetRecordsResponse response = scripts.getOrDefault(request.shardIterator(), new ArrayDeque<>()).poll();
+            return response != null ? response : GetRecordsResponse.builder()
+                    .nextShardIterator(request.shardIterator())
+                    .millisBehindLatest(0L)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Record record(String partitionKey, String sequenceNumber) {
+        return Record.builder()
+                .partitionKey(partitionKey)
+                .sequenceNumber(sequenceNumber)
+                .data(SdkBytes.fromByteArray(new byte[2]))
+                .build();
+    }
+
+    private static ChildShard child(String shardId, String... parents) {
+        return ChildShard.builder().shardId(shardId).parentShards(parents).build();
+    }
+
+    private static List<String> await(KinesisAudioRecordSource source, int count) throws InterruptedException {
+        List<String> sequenceNumbers = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (sequenceNumbers.size() < count && System.currentTimeMillis() < deadline) {
+            KinesisAudioRecordSource.ShardRecord shardRecord = source.poll();
+            if (shardRecord == null) {
+                Thread.sleep(10);
+            } else {
+                sequenceNumbers.add(shardRecord.getShardId() + ":" + shardRecord.getRecord().sequenceNumber());
+            }
+        }
+        return sequenceNumbers;
+    }
+
+    @Test
+    public void readsEveryShardOfEveryPage() throws InterruptedException {
+        StubKinesisClient kinesis = new StubKinesisClient("shard-0")
+                .script("shard-0", false, null, record("call", "1"))
+                .script("shard-1", false, null, record("call", "2"));
+        kinesis.pages.set(0, kinesis.pages.get(0).toBuilder().nextToken("page-2").build());
+        kinesis.pages.add(ListShardsResponse.builder().shards(Shard.builder().shardId("shard-1").build()).build());
+
+        try (KinesisAudioRecordSource source = new KinesisAudioRecordSource("discovery", "call",
+                Collections.emptyMap(), kinesis, null, null)) {
+            source.start();
+            List<String> read = await(source, 2);
+            Collections.sort(read);
+
+            assertEquals(List.of("shard-0:1", "shard-1:2"), read);
+            // Follow-up pages are requested by token alone
+            assertEquals("page-2", kinesis.listRequests.get(1).nextToken());
+            assertNull(kinesis.listRequests.get(1).streamName());
+        }
+    }
+
+    @Test
+    public void readsMergedChildOnlyAfterBothParents() throws InterruptedException {
+        ChildShard merged = child("shard-2", "shard-0", "shard-1");
+        StubKinesisClient kinesis = new StubKinesisClient("shard-0", "shard-1")
+                .script("shard-0", true, List.of(merged), record("call", "1"))
+                // The second parent ends one poll later
+                .script("shard-1", false, null)
+                .script("shard-1", true, List.of(merged), record("call", "2"))
+                .script("shard-2", false, null, record("call", "3"));
+
+        try (KinesisAudioRecordSource source = new KinesisAudioRecordSource("resharding", "call",
+                Collections.emptyMap(), kinesis, null, null)) {
+            source.start();
+            List<String> read = await(source, 3);
+
+            assertEquals(3, read.size());
+            assertEquals("shard-2:3", read.get(2));
+            List<GetShardIteratorRequest> childRequests = new ArrayList<>();
+            for (GetShardIteratorRequest request : kinesis.iteratorRequests) {
+                if (request.shardId().equals("shard-2")) {
+                    childRequests.add(request);
+                }
+            }
+            assertEquals(1, childRequests.size());
+            assertEquals(ShardIteratorType.TRIM_HORIZON, childRequests.get(0).shardIteratorType());
+        }
+    }
+
+    @Test
+    public void fallsBackToPollingWhenFanOutIsUnavailable() throws InterruptedException {
+        StubKinesisClient kinesis = new StubKinesisClient("shard-0")
+                .script("shard-0", false, null, record("call", "1"));
+        AtomicInteger subscriptions = new AtomicInteger();
+        KinesisAsyncClient fanOut = new KinesisAsyncClient() {
+            @Override
+            public CompletableFuture<Void> subscribeToShard(SubscribeToShardRequest request,
+                                                            SubscribeToShardResponseHandler handler) {
+                subscriptions.incrementAndGet();
+                return CompletableFuture.failedFuture(ResourceNotFoundException.builder().message("no consumer").build());
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (KinesisAudioRecordSource source = new KinesisAudioRecordSource("fan-out", "call",
+                Collections.emptyMap(), kinesis, fanOut, "arn:consumer")) {
+            source.start();
+
+            assertEquals(List.of("shard-0:1"), await(source, 1));
+            assertEquals(1, subscriptions.get());
+        }
+    }
+
+    @Test
+    public void sharesOneReaderAndFiltersByPartitionKey() throws InterruptedException {
+        StubKinesisClient kinesis = new StubKinesisClient("shard-0");
+
+        try (KinesisAudioRecordSource first = new KinesisAudioRecordSource("shared", "call-1",
+                Collections.emptyMap(), kinesis, null, null);
+             KinesisAudioRecordSource second = new KinesisAudioRecordSource("shared", "call-2",
+                     Collections.emptyMap(), kinesis, null, null)) {
+            first.start();
+            second.start();
+            kinesis.script("shard-0", false, null, record("call-1", "1"), record("call-2", "2"), record("call-1", "3"));
+
+            assertEquals(List.of("shard-0:1", "shard-0:3"), await(first, 2));
+            assertEquals(List.of("shard-0:2"), await(second, 1));
+            assertNull(first.poll());
+            // One reader polls the shard for both calls
+            assertEquals(1, kinesis.iteratorRequests.size());
+        }
+    }
+
+    @Test
+    public void resumesAfterCheckpointWithItsOwnReader() throws InterruptedException {
+        StubKinesisClient kinesis = new StubKinesisClient("shard-0")
+                .script("shard-0", false, null, record("call", "8"));
+
+        try (KinesisAudioRecordSource source = new KinesisAudioRecordSource("resume", "call",
+                Map.of("shard-0", "7"), kinesis, null, null)) {
+            source.start();
+
+            assertEquals(List.of("shard-0:8"), await(source, 1));
+            GetShardIteratorRequest request = kinesis.iteratorRequests.get(0);
+            assertEquals(ShardIteratorType.AFTER_SEQUENCE_NUMBER, request.shardIteratorType());
+            assertEquals("7", request.startingSequenceNumber());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LanguageSettingsServiceTest {
+
+    private static final String LANGUAGES = "# name\ttranscribe\ttranslate\tpolly\tvoice\n"
+            + "English\ten-US\ten\ten-US\tKendra\n"
+            + "French\tfr-FR\tfr\t\tMathieu\n"
+            + "Spanish\tes-ES\tes\tes-ES\tLucia\n";
+
+    /**
+     * Serves items from a map and records every read.
+     */
+    private static class StubHelper extends DynamoDBHelper {
+        final Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        final List<String> reads = new ArrayList<>();
+
+        StubHelper() {
+            super(null);
+        }
+
+        void put(String callId, String customer, String agent) {
+            items.put(callId, Map.of(
+                    "customer_language", AttributeValue.builder().s(customer).build(),
+                    "agent_language", AttributeValue.builder().s(agent).build()));
+        }
+
+        @Override
+        public Map<String, AttributeValue> getItem(String tableName, String primaryKey, String primaryKeyValue,
+                                                   String... attributes) {
+            reads.add(primaryKeyValue);
+            return items.getOrDefault(primaryKeyValue, Collections.emptyMap());
+        }
+    }
+
+    private static LanguageSettingsService service(StubHelper helper, AtomicLong now) throws Exception {
+        return new LanguageSettingsService(helper, "languages", "callId", "1",
+                LanguageSettingsService.parseLanguages(new StringReader(LANGUAGES)), 1000, 100, now::get);
+    }
+
+    @Test
+    public void parsesLanguageTableWithEmptyColumns() throws Exception {
+        Map<String, LanguageDetails> languages = LanguageSettingsService.parseLanguages(new StringReader(LANGUAGES));
+
+        assertEquals(3, languages.size());
+        assertEquals("", languages.get("French").getPollyLanguageCode());
+        assertEquals("Mathieu", languages.get("French").getPollyVoiceId());
+    }
+
+    @Test
+    public void cachesLookupsUntilTtl() throws Exception {
+        StubHelper helper = new StubHelper();
+        helper.put("contact-1", "French", "English");
+        AtomicLong now = new AtomicLong(0);
+        LanguageSettingsService service = service(helper, now);
+
+        assertEquals("fr", service.getLanguages("contact-1").customer.getTranslateLanguageCode());
+        now.set(999);
+        assertEquals("en", service.getLanguages("contact-1").agent.getTranslateLanguageCode());
+        assertEquals(List.of("contact-1"), helper.reads);
+
+        now.set(1000);
+        service.getLanguages("contact-1");
+        assertEquals(List.of("contact-1", "contact-1"), helper.reads);
+    }
+
+    @Test
+    public void fallsBackToDefaultAndCachesMissingRow() throws Exception {
+        StubHelper helper = new StubHelper();
+        helper.put("1", "Spanish", "English");
+        AtomicLong now = new AtomicLong(0);
+        LanguageSettingsService service = service(helper, now);
+
+        assertEquals("es", service.getLanguages("unknown").customer.getTranslateLanguageCode());
+        assertEquals("es", service.getLanguages("unknown").customer.getTranslateLanguageCode());
+        assertEquals(List.of("unknown", "1"), helper.reads);
+
+        now.set(100);
+        service.getLanguages("unknown");
+        assertEquals(List.of("unknown", "1", "unknown"), helper.reads);
+    }
+
+    @Test
+    public void failsWithoutDefaultAndDoesNotCacheUnknownLanguage() throws Exception {
+        StubHelper helper = new StubHelper();
+        helper.put("contact-1", "Klingon", "English");
+        LanguageSettingsService service = service(helper, new AtomicLong(0));
+
+        assertThrows(IllegalStateException.class, () -> service.getLanguages("contact-1"));
+        assertThrows(IllegalStateException.class, () -> service.getLanguages("contact-1"));
+        assertEquals(List.of("contact-1", "contact-1"), helper.reads);
+        assertThrows(IllegalStateException.class, () -> service.getLanguages("other"));
+    }
+}
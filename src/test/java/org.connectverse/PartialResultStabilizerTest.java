@@ -0,0 +1,50 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PartialResultStabilizerTest {
+
+    private static final List<Boolean> NO_STABILITY = Collections.emptyList();
+
+    private static List<String> words(String text) {
+        return Arrays.asList(text.split(" "));
+    }
+
+    @Test
+    public void emitsPrefixUnchangedAcrossPartialsAndRestOnFinal() {
+        PartialResultStabilizer stabilizer = new PartialResultStabilizer(2, 2);
+
+        assertEquals("", stabilizer.onPartial("r1", words("hello my"), NO_STABILITY));
+        // "name" is still the word being spoken
+        assertEquals("hello my", stabilizer.onPartial("r1", words("hello my name"), NO_STABILITY));
+        assertEquals("", stabilizer.onPartial("r1", words("hello my name is"), NO_STABILITY));
+        assertEquals("name is", stabilizer.onPartial("r1", words("hello my name is john"), NO_STABILITY));
+
+        assertEquals("john smith", stabilizer.onFinal("r1", words("hello my name is john smith")));
+    }
+
+    @Test
+    public void usesTranscribeStabilityFlags() {
+        PartialResultStabilizer stabilizer = new PartialResultStabilizer(3, 2);
+
+        assertEquals("good morning", stabilizer.onPartial("r1", words("good morning every"),
+                Arrays.asList(true, true, false)));
+        assertEquals("", stabilizer.onPartial("r1", words("good morning everyone how"),
+                Arrays.asList(true, true, true, false)));
+
+        assertEquals("everyone how are you", stabilizer.onFinal("r1", words("good morning everyone how are you")));
+    }
+
+    @Test
+    public void finalWithoutPartialsIsReturnedWhole() {
+        PartialResultStabilizer stabilizer = new PartialResultStabilizer(3, 4);
+
+        assertEquals("thank you", stabilizer.onFinal("r2", words("thank you")));
+    }
+}
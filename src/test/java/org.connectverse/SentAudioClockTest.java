@@ -0,0 +1,51 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SentAudioClockTest {
+
+    // 100 ms at 16 kHz
+    private static final int FRAME_BYTES = 3200;
+
+    @Test
+    public void mapsOffsetsToTheChunkThatHeldThem() {
+        SentAudioClock clock = new SentAudioClock(16000);
+        clock.recordSent(FRAME_BYTES, 1000);
+        // Silence held back by the voice activity filter never reaches Transcribe, so the next frame follows on
+        clock.recordSent(FRAME_BYTES, 5000);
+        clock.recordSent(FRAME_BYTES / 2, 5100);
+
+        assertEquals(1000, clock.getSentAtMillis(0.05));
+        assertEquals(1000, clock.getSentAtMillis(0.1));
+        assertEquals(5000, clock.getSentAtMillis(0.15));
+        assertEquals(5100, clock.getSentAtMillis(0.25));
+        // Not sent yet
+        assertEquals(0, clock.getSentAtMillis(0.3));
+    }
+
+    @Test
+    public void restartForgetsThePreviousStream() {
+        SentAudioClock clock = new SentAudioClock(8000);
+        clock.recordSent(1600, 1000);
+        clock.restart();
+
+        assertEquals(0, clock.getSentAtMillis(0.05));
+        // The retry's replayed audio comes first in the new stream
+        clock.recordSent(1600, 9000);
+        assertEquals(9000, clock.getSentAtMillis(0.05));
+    }
+
+    @Test
+    public void forgetsTheOldestChunks() {
+        SentAudioClock clock = new SentAudioClock(16000);
+        for (int i = 0; i <= SentAudioClock.MAX_CHUNKS; i++) {
+            clock.recordSent(FRAME_BYTES, i);
+        }
+
+        assertEquals(0, clock.getSentAtMillis(0.1));
+        assertEquals(1, clock.getSentAtMillis(0.15));
+        assertEquals(SentAudioClock.MAX_CHUNKS, clock.getSentAtMillis(SentAudioClock.MAX_CHUNKS * 0.1 + 0.1));
+    }
+}
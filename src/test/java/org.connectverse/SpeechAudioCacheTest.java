@@ -0,0 +1,95 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpeechAudioCacheTest {
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] audio(int length, char fill) {
+        byte[] audio = new byte[length];
+        Arrays.fill(audio, (byte) fill);
+        return audio;
+    }
+
+    @Test
+    public void returnsReadOnlyCopyOfStoredAudio() {
+        SpeechAudioCache cache = new SpeechAudioCache(800, false);
+        byte[] encoded = "QUJD".getBytes(StandardCharsets.US_ASCII);
+        cache.put("Kendra", "en-US", "Hello ", encoded);
+        encoded[0] = 'X';
+
+        ByteBuffer cached = cache.get("Kendra", "en-US", "Hello");
+        assertNotNull(cached);
+        assertTrue(cached.isReadOnly());
+        assertEquals("QUJD", text(cached));
+        assertNull(cache.get("Aditi", "en-US", "Hello"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByBytes() {
+        // 800 bytes in total, 100 byte entries at most
+        SpeechAudioCache cache = new SpeechAudioCache(800, false);
+        for (int i = 0; i < 8; i++) {
+            cache.put("v", "l", "clip " + i, audio(100, 'a'));
+        }
+        cache.get("v", "l", "clip 0");
+        cache.put("v", "l", "short", audio(60, 'b'));
+
+        assertNull(cache.get("v", "l", "clip 1"));
+        assertNotNull(cache.get("v", "l", "clip 0"));
+        assertNotNull(cache.get("v", "l", "clip 2"));
+        assertNotNull(cache.get("v", "l", "short"));
+        assertEquals(760, cache.getCurrentBytes());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void replacingAnEntryCountsOnlyTheNewSize() {
+        SpeechAudioCache cache = new SpeechAudioCache(800, false);
+        cache.put("v", "l", "hello", audio(100, 'a'));
+        cache.put("v", "l", "hello", audio(40, 'b'));
+
+        assertEquals(40, cache.getCurrentBytes());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void skipsEntriesLargerThanAnEighthOfTheBudget() {
+        SpeechAudioCache cache = new SpeechAudioCache(800, true);
+        cache.put("v", "l", "fits", audio(100, 'a'));
+        cache.put("v", "l", "too long", audio(101, 'b'));
+
+        assertEquals(100, cache.getMaxEntryBytes());
+        assertNotNull(cache.get("v", "l", "fits"));
+        assertNull(cache.get("v", "l", "too long"));
+        assertEquals(100, cache.getCurrentBytes());
+    }
+
+    @Test
+    public void zeroBudgetDisablesCache() {
+        SpeechAudioCache cache = new SpeechAudioCache(0, false);
+        cache.put("v", "l", "hello", audio(1, 'a'));
+
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.getMaxEntryBytes());
+        assertNull(cache.get("v", "l", "hello"));
+        assertEquals(0, cache.getMisses());
+    }
+}
@@ -0,0 +1,106 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.PartialResultsStability;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TranscribeStreamingRetryClientTest {
+
+    /**
+     * Fails the first stream with a retriable error, completes the next one, and records every request.
+     */
+    private static class StubClient implements TranscribeStreamingAsyncClient {
+        final List<StartStreamTranscriptionRequest> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<Void> startStreamTranscription(StartStreamTranscriptionRequest request,
+                                                                Publisher<AudioStream> requestStream,
+                                                                StartStreamTranscriptionResponseHandler handler) {
+            requests.add(request);
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            if (requests.size() == 1) {
+                result.completeExceptionally(new IllegalStateException("connection reset"));
+            } else {
+                result.complete(null);
+            }
+            return result;
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class NoOpBehavior implements StreamTranscriptionBehavior {
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onStream(TranscriptResultStream e) {
+        }
+
+        @Override
+        public void onResponse(StartStreamTranscriptionResponse r) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    @Test
+    public void keepsRequestFieldsAcrossRetries() throws Exception {
+        StubClient stub = new StubClient();
+        StartStreamTranscriptionRequest request = StartStreamTranscriptionRequest.builder()
+                .languageCode(LanguageCode.EN_US)
+                .numberOfChannels(1)
+                .mediaEncoding(MediaEncoding.PCM)
+                .mediaSampleRateHertz(16000)
+                .enablePartialResultsStabilization(true)
+                .partialResultsStability(PartialResultsStability.HIGH)
+                .build();
+
+        try (TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(stub, false)) {
+            client.setSleepTime(1);
+            client.startStreamTranscription(request, subscriber -> { }, new NoOpBehavior())
+                    .get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, stub.requests.size());
+        for (StartStreamTranscriptionRequest sent : stub.requests) {
+            assertEquals(LanguageCode.EN_US, sent.languageCode());
+            assertEquals(Integer.valueOf(1), sent.numberOfChannels());
+            assertEquals(MediaEncoding.PCM, sent.mediaEncoding());
+            assertEquals(Integer.valueOf(16000), sent.mediaSampleRateHertz());
+            assertTrue(sent.enablePartialResultsStabilization());
+            assertEquals(PartialResultsStability.HIGH, sent.partialResultsStability());
+            assertNotNull(sent.sessionId());
+        }
+        assertEquals(stub.requests.get(0).sessionId(), stub.requests.get(1).sessionId());
+        assertNotEquals(request.sessionId(), stub.requests.get(0).sessionId());
+    }
+}
@@ -0,0 +1,67 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TranslationCacheTest {
+
+    @Test
+    public void hitsIgnoreWhitespaceAndCase() {
+        TranslationCache cache = new TranslationCache(10, 60_000);
+        cache.put("en", "hi", "Thank you for calling", "translated");
+
+        assertEquals("translated", cache.get("en", "hi", "  thank   you for CALLING "));
+        assertNull(cache.get("en", "fr", "Thank you for calling"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        TranslationCache cache = new TranslationCache(2, 60_000);
+        cache.put("en", "hi", "one", "1");
+        cache.put("en", "hi", "two", "2");
+        cache.get("en", "hi", "one");
+        cache.put("en", "hi", "three", "3");
+
+        assertEquals("1", cache.get("en", "hi", "one"));
+        assertNull(cache.get("en", "hi", "two"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void expiresAfterTtl() {
+        AtomicLong now = new AtomicLong(0);
+        TranslationCache cache = new TranslationCache(10, 1000, now::get);
+        cache.put("en", "hi", "hold on", "translated");
+
+        now.set(999);
+        assertEquals("translated", cache.get("en", "hi", "hold on"));
+        now.set(1001);
+        assertNull(cache.get("en", "hi", "hold on"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void prewarmLoadsProvidedTranslations() throws Exception {
+        TranslationCache cache = new TranslationCache(10, 60_000);
+        String list = "# comment\n\nen\thi\tplease hold\ttranslated\n";
+
+        assertEquals(1, cache.prewarm(new StringReader(list), null));
+        assertEquals("translated", cache.get("en", "hi", "Please hold"));
+    }
+
+    @Test
+    public void zeroSizeDisablesCache() {
+        TranslationCache cache = new TranslationCache(0, 60_000);
+        cache.put("en", "hi", "hello", "translated");
+
+        assertNull(cache.get("en", "hi", "hello"));
+        assertEquals(0, cache.getMisses());
+    }
+}
@@ -0,0 +1,163 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class TranslationPipelineTest {
+
+    /**
+     * Returns the segments joined, and records every request.
+     */
+    private static class StubTranslateText extends TranslateText {
+        final List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+
+        StubTranslateText() {
+            super("en", "de", null, new TranslationCache(0, 0));
+        }
+
+        @Override
+        public CompletableFuture<String> translateSegmentsAsync(List<String> segments) {
+            requests.add(segments);
+            return CompletableFuture.completedFuture(String.join(" ", segments));
+        }
+    }
+
+    /**
+     * Speaks every text as its own bytes, immediately unless the text is held.
+     */
+    private static class StubSynthesizer extends PollySpeechSynthesizer {
+        final Map<String, CompletableFuture<SynthesizedSpeech>> held = new HashMap<>();
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+        StubSynthesizer(String... heldTexts) {
+            super("de-DE", "Vicki", null, new SpeechAudioCache(0, false));
+            for (String text : heldTexts) {
+                held.put(text, new CompletableFuture<>());
+            }
+        }
+
+        @Override
+        public CompletableFuture<SynthesizedSpeech> synthesizeAsync(String text) {
+            requests.add(text);
+            return held.getOrDefault(text, CompletableFuture.completedFuture(speech(text)));
+        }
+
+        void release(String text) {
+            held.get(text).complete(speech(text));
+        }
+
+        static SynthesizedSpeech speech(String text) {
+            return new SynthesizedSpeech(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)), false);
+        }
+    }
+
+    /**
+     * Records what would be posted to the WebSocket.
+     */
+    private static class RecordingStreamer extends WebSocketStreamer {
+        final List<String> posted = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingStreamer() {
+            super((ApiGatewayManagementApiClient) null, "table", "receiver");
+        }
+
+        @Override
+        public boolean streamAudioToConnections(SynthesizedSpeech speech) {
+            posted.add(StandardCharsets.US_ASCII.decode(speech.getEncodedAudio()).toString());
+            return true;
+        }
+    }
+
+    private final StubTranslateText translateText = new StubTranslateText();
+    private final RecordingStreamer streamer = new RecordingStreamer();
+
+    private TranslationPipeline pipeline(StubSynthesizer synthesizer, int maxInFlight, int synthesizeConcurrency) {
+        return new TranslationPipeline(translateText, synthesizer, streamer, new CallMetrics(null, null),
+                maxInFlight, maxInFlight, synthesizeConcurrency);
+    }
+
+    @Test
+    public void deliversInSubmitOrderWhenSynthesisFinishesOutOfOrder() {
+        StubSynthesizer synthesizer = new StubSynthesizer("first", "second");
+        TranslationPipeline pipeline = pipeline(synthesizer, 4, 4);
+
+        assertEquals(1, pipeline.submit("first"));
+        assertEquals(2, pipeline.submit("second"));
+        assertEquals(3, pipeline.submit("third"));
+
+        synthesizer.release("second");
+        synthesizer.release("first");
+        pipeline.close();
+
+        assertEquals(List.of("first", "second", "third"), streamer.posted);
+    }
+
+    @Test
+    public void limitsConcurrentRequestsPerStage() {
+        StubSynthesizer synthesizer = new StubSynthesizer("first");
+        TranslationPipeline pipeline = pipeline(synthesizer, 4, 1);
+
+        pipeline.submit("first");
+        pipeline.submit("second");
+
+        // Both are translated, but the second waits for the first to be synthesized
+        assertEquals(2, translateText.requests.size());
+        assertEquals(List.of("first"), synthesizer.requests);
+
+        synthesizer.release("first");
+        pipeline.close();
+
+        assertEquals(List.of("first", "second"), synthesizer.requests);
+        assertEquals(List.of("first", "second"), streamer.posted);
+    }
+
+    @Test
+    public void backlogDropsOldestSegmentsOnceFull() {
+        StubSynthesizer synthesizer = new StubSynthesizer("first");
+        TranslationPipeline pipeline = pipeline(synthesizer, 1, 1);
+
+        pipeline.submit("first");
+        for (int i = 0; i < TranslationPipeline.MAX_BACKLOG_SEGMENTS + 2; i++) {
+            assertEquals(0, pipeline.submit("segment " + i));
+        }
+        assertEquals(2, pipeline.getDroppedSegments());
+
+        synthesizer.release("first");
+        pipeline.close();
+
+        // The rest of the backlog goes out as one utterance once the slot frees up
+        assertEquals(2, translateText.requests.size());
+        List<String> backlog = translateText.requests.get(1);
+        assertEquals(TranslationPipeline.MAX_BACKLOG_SEGMENTS, backlog.size());
+        assertEquals("segment 2", backlog.get(0));
+        assertEquals(2, streamer.posted.size());
+    }
+
+    @Test
+    public void dropsSubmitsAfterClose() {
+        TranslationPipeline pipeline = pipeline(new StubSynthesizer(), 4, 4);
+        pipeline.submit("before");
+        CompletableFuture<Void> closed = pipeline.closeAsync();
+
+        assertEquals(0, pipeline.submit("after"));
+
+        closed.join();
+        assertFalse(closed.isCompletedExceptionally());
+        assertSame(closed, pipeline.closeAsync());
+        assertEquals(1, pipeline.getDroppedSegments());
+        assertEquals(List.of("before"), streamer.posted);
+    }
+}
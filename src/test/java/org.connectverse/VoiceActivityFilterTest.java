@@ -0,0 +1,86 @@
+package org.connectverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VoiceActivityFilterTest {
+
+    // 1 kHz makes every sample a millisecond: 100 ms chunks of 100 samples = 200 bytes
+    private static final int SAMPLE_RATE = 1000;
+    private static final int CHUNK_SAMPLES = 100;
+
+    private static VoiceActivityFilter filter() {
+        // Threshold 500, 25% zero crossings, 200 ms hangover, 100 ms pre-roll, 1 s keep-alive
+        return new VoiceActivityFilter(SAMPLE_RATE, 500, 25, 200, 100, 1000);
+    }
+
+    /**
+     * A chunk whose samples alternate sign every {@code period} samples at the given amplitude.
+     */
+    private static byte[] chunk(int amplitude, int period) {
+        byte[] audio = new byte[CHUNK_SAMPLES * 2];
+        for (int i = 0; i < CHUNK_SAMPLES; i++) {
+            int sample = (i / period) % 2 == 0 ? amplitude : -amplitude;
+            audio[2 * i] = (byte) sample;
+            audio[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return audio;
+    }
+
+    @Test
+    public void classifiesByEnergyAndZeroCrossings() {
+        VoiceActivityFilter filter = filter();
+
+        assertTrue(filter.isSpeech(chunk(2000, 20)));
+        assertFalse(filter.isSpeech(chunk(100, 20)));
+        // Quiet but noisy like a fricative
+        assertTrue(filter.isSpeech(chunk(300, 1)));
+        // Same level without the zero crossings
+        assertFalse(filter.isSpeech(chunk(300, 20)));
+        assertFalse(filter.isSpeech(new byte[1]));
+    }
+
+    @Test
+    public void suppressesLeadingSilenceButSendsKeepAlive() {
+        VoiceActivityFilter filter = filter();
+        List<byte[]> sent = new ArrayList<>();
+
+        for (int i = 0; i < 25; i++) {
+            filter.accept(chunk(0, 20), sent::add);
+        }
+
+        // One chunk per second of suppressed audio
+        assertEquals(2, sent.size());
+        assertEquals(2.5, filter.getSecondsReceived(), 1e-9);
+        assertEquals(0.2, filter.getSecondsSent(), 1e-9);
+    }
+
+    @Test
+    public void sendsPreRollAndHangoverAroundSpeech() {
+        VoiceActivityFilter filter = filter();
+        List<byte[]> sent = new ArrayList<>();
+        byte[] beforeSpeech = chunk(0, 20);
+        byte[] speech = chunk(2000, 20);
+
+        filter.accept(chunk(0, 20), sent::add);
+        filter.accept(beforeSpeech, sent::add);
+        filter.accept(speech, sent::add);
+        for (int i = 0; i < 5; i++) {
+            filter.accept(chunk(0, 20), sent::add);
+        }
+
+        // 100 ms pre-roll, the speech, then 200 ms of hangover
+        assertEquals(4, sent.size());
+        assertSame(beforeSpeech, sent.get(0));
+        assertSame(speech, sent.get(1));
+        assertEquals(0.4, filter.getSecondsSent(), 1e-9);
+        assertEquals(0.8, filter.getSecondsReceived(), 1e-9);
+    }
+}
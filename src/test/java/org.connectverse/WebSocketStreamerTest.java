@@ -0,0 +1,100 @@
+package org.connectverse;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WebSocketStreamerTest {
+
+    /**
+     * Records the payload of every post.
+     */
+    private static class RecordingClient implements ApiGatewayManagementApiClient {
+        final List<JSONObject> posts = new ArrayList<>();
+
+        @Override
+        public PostToConnectionResponse postToConnection(PostToConnectionRequest request) {
+            posts.add(new JSONObject(request.data().asUtf8String()));
+            return PostToConnectionResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static WebSocketStreamer streamer(RecordingClient client) {
+        return new WebSocketStreamer(client, "connections", "receiver") {
+            @Override
+            String getConnectionId() {
+                return "connection-1";
+            }
+        };
+    }
+
+    private static byte[] decodeFrames(List<JSONObject> posts) {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        for (JSONObject post : posts) {
+            // Every frame must decode on its own
+            audio.writeBytes(Base64.getDecoder().decode(post.getString("audio_data")));
+        }
+        return audio.toByteArray();
+    }
+
+    @Test
+    public void streamedAndCachedClipsRoundTrip() {
+        // Not a multiple of the frame size, so the last frame is short
+        byte[] polly = new byte[10_000];
+        new Random(42).nextBytes(polly);
+
+        RecordingClient client = new RecordingClient();
+        WebSocketStreamer streamer = streamer(client);
+        AtomicReference<byte[]> cached = new AtomicReference<>();
+
+        streamer.streamAudioFrames(1, SynthesizedSpeech.streaming(new ByteArrayInputStream(polly), 1 << 20, cached::set));
+
+        assertTrue(client.posts.size() > 1);
+        assertArrayEquals(polly, decodeFrames(client.posts));
+        assertNotNull(cached.get());
+        assertArrayEquals(polly, Base64.getDecoder().decode(cached.get()));
+
+        // A later cache hit goes out through the buffered path
+        client.posts.clear();
+        streamer.streamAudioFrames(2, new SynthesizedSpeech(ByteBuffer.wrap(cached.get()), true));
+
+        assertTrue(client.posts.get(client.posts.size() - 1).getBoolean("last"));
+        assertArrayEquals(polly, decodeFrames(client.posts));
+    }
+
+    @Test
+    public void postsWholeClipAsOneMessage() {
+        byte[] polly = "not really mp3".getBytes(StandardCharsets.US_ASCII);
+        RecordingClient client = new RecordingClient();
+        ByteBuffer encoded = ByteBuffer.wrap(Base64.getEncoder().encode(polly));
+
+        streamer(client).streamAudioToConnections(new SynthesizedSpeech(encoded, false));
+
+        assertArrayEquals(polly, decodeFrames(client.posts));
+    }
+}